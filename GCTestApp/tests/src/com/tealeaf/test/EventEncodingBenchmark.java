@@ -0,0 +1,105 @@
+package com.tealeaf.test;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import com.google.gson.Gson;
+import com.tealeaf.EventBuffer;
+import com.tealeaf.event.Event;
+import com.tealeaf.event.ImageLoadedEvent;
+import com.tealeaf.event.SocketReadEvent;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class EventEncodingBenchmark extends AndroidTestCase {
+	private static final String TAG = "EventEncodingBenchmark";
+	private static final int EVENTS = 10000;
+	private static final int RUNS = 5;
+
+	public void testLayout() {
+		EventBuffer buffer = new EventBuffer(16);
+		buffer.put("{\"a\":1}");
+		buffer.put("é\u0000€");
+
+		ByteBuffer data = buffer.getBuffer();
+		assertEquals(2, buffer.getCount());
+		assertEquals(7, data.getInt(0));
+		assertEquals('{', data.get(4));
+		assertEquals(0, data.get(4 + 7));
+
+		int second = 4 + 7 + 1;
+		assertEquals(7, data.getInt(second));
+		// U+0000 is written as C0 80 so it can't end the string early
+		assertEquals((byte)0xc3, data.get(second + 4));
+		assertEquals((byte)0xc0, data.get(second + 6));
+		assertEquals((byte)0x80, data.get(second + 7));
+		assertEquals((byte)0xe2, data.get(second + 8));
+		assertEquals(0, data.get(second + 4 + 7));
+		assertEquals(second + 4 + 7 + 1, buffer.getSize());
+	}
+
+	public void testGrowKeepsEvents() {
+		EventBuffer buffer = new EventBuffer(16);
+		for (int i = 0; i < 100; i++) {
+			buffer.put("event " + i);
+		}
+		assertEquals(100, buffer.getCount());
+		assertEquals(7, buffer.getBuffer().getInt(0));
+	}
+
+	private static Event[] events() {
+		Event[] events = new Event[EVENTS];
+		for (int i = 0; i < EVENTS; i++) {
+			if (i % 2 == 0) {
+				events[i] = new SocketReadEvent(1, "line " + i + " of socket data");
+			} else {
+				events[i] = new ImageLoadedEvent("resources/images/" + i + ".png", 256, 256, 200, 180, i);
+			}
+		}
+		return events;
+	}
+
+	// Compares a frame's dispatch the old way, serializing each event with
+	// Gson and handing native code a String[] it copies out one event at a
+	// time, against pack() into one EventBuffer. Calling the native dispatch
+	// here would deliver the events to the running game, so the old path's
+	// per event GetStringUTFChars and strdup copies are modeled in Java. This
+	// only approximates the JNI side and doesn't include the JSON.parse JS
+	// still does for each event, since both paths carry the same JSON.
+	public void testBenchmark() throws UnsupportedEncodingException {
+		Event[] events = events();
+		Gson gson = new Gson();
+		EventBuffer buffer = new EventBuffer(16 * 1024);
+		long oldTime = Long.MAX_VALUE, newTime = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long then = System.nanoTime();
+			ArrayList<String> queue = new ArrayList<String>();
+			for (Event event : events) {
+				queue.add(gson.toJson(event));
+			}
+			String[] strings = queue.toArray(new String[queue.size()]);
+			int bytes = 0;
+			for (String event : strings) {
+				byte[] utf = event.getBytes("UTF-8");
+				byte[] copy = new byte[utf.length + 1];
+				System.arraycopy(utf, 0, copy, 0, utf.length);
+				bytes += copy.length;
+			}
+			oldTime = Math.min(oldTime, System.nanoTime() - then);
+			assertTrue(bytes > 0);
+
+			then = System.nanoTime();
+			buffer.clear();
+			for (Event event : events) {
+				buffer.put(event.pack());
+			}
+			newTime = Math.min(newTime, System.nanoTime() - then);
+			assertEquals(EVENTS, buffer.getCount());
+		}
+
+		Log.i(TAG, "Gson + String[] path: " + oldTime / 1000 + "us, pack + buffer path: " + newTime / 1000 +
+				"us for " + EVENTS + " events (" + buffer.getSize() + " bytes)");
+	}
+}
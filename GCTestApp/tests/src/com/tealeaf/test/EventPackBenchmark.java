@@ -0,0 +1,79 @@
+package com.tealeaf.test;
+
+import java.util.LinkedHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.tealeaf.event.Event;
+import com.tealeaf.event.ImageLoadedEvent;
+import com.tealeaf.event.SocketReadEvent;
+import com.tealeaf.event.XHREvent;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class EventPackBenchmark extends AndroidTestCase {
+	private static final String TAG = "EventPackBenchmark";
+	private static final int EVENTS = 10000;
+
+	private static Event[] samples() {
+		LinkedHashMap<String, int[]> frames = new LinkedHashMap<String, int[]>();
+		frames.put("resources/images/a.png", new int[] {0, 0, 32, 32});
+		return new Event[] {
+			new ImageLoadedEvent("resources/images/a.png?v=1&x=<2>", 256, 256, 200, 180, 7),
+			new ImageLoadedEvent("@ATLAS|resources/images/a.png", 1024, 64, 1024, 64, 8, frames),
+			new SocketReadEvent(1, "line with \"quotes\" and unicode é "),
+			new SocketReadEvent(2, null),
+			new XHREvent(3, 4, 200, "<html></html>", new String[] {"Content-Type"}, null),
+		};
+	}
+
+	// The hand written adapters must produce the same JSON as reflection did.
+	// Reflection's field order depends on the VM, so compare the parsed trees
+	public void testSameOutputAsReflection() {
+		Gson gson = new Gson();
+		JsonParser parser = new JsonParser();
+		for (Event event : samples()) {
+			String expected = gson.toJson(event);
+			String actual = event.pack();
+			assertEquals(actual, parser.parse(expected), parser.parse(actual));
+		}
+	}
+
+	public void testBenchmark() {
+		bench(new ImageLoadedEvent("resources/images/a.png", 256, 256, 200, 180, 7));
+		bench(new SocketReadEvent(1, "some line of data from the server"));
+	}
+
+	private void bench(Event event) {
+		Gson gson = new Gson();
+		// Warm up both paths
+		for (int i = 0; i < 1000; i++) {
+			gson.toJson(event);
+			event.pack();
+		}
+
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocCount();
+		long then = System.nanoTime();
+		for (int i = 0; i < EVENTS; i++) {
+			gson.toJson(event);
+		}
+		long reflectionTime = System.nanoTime() - then;
+		int reflectionAllocs = Debug.getThreadAllocCount();
+
+		Debug.resetThreadAllocCount();
+		then = System.nanoTime();
+		for (int i = 0; i < EVENTS; i++) {
+			event.pack();
+		}
+		long adapterTime = System.nanoTime() - then;
+		int adapterAllocs = Debug.getThreadAllocCount();
+		Debug.stopAllocCounting();
+
+		Log.i(TAG, event.getClass().getSimpleName() + ": reflection " + reflectionTime / EVENTS + "ns, " +
+				reflectionAllocs / EVENTS + " allocations; adapter " + adapterTime / EVENTS + "ns, " +
+				adapterAllocs / EVENTS + " allocations per event");
+	}
+}
@@ -25,6 +25,8 @@ extern "C" {
 #include "core/draw_textures.h"
 }
 #include "platform/text_manager.h"
+#include "platform/text_manager_batch.h"
+#include "platform/texture_priority.h"
 #include <string.h>
 #include <math.h>
 #include <stdlib.h>
@@ -59,6 +61,11 @@ Handle<Value> defDrawImage(const Arguments& args) {
 	rect_2d dest_rect = {destX, destY, destW, destH};
 
 	context_2d_drawImage(GET_CONTEXT2D(), srcTex, url, &src_rect, &dest_rect, composite_op);
+	// No texture yet, so it's on screen and still loading: load it ahead
+	// of images that are only being preloaded
+	if (srcTex == 0 && url[0] != '@') {
+		resource_loader_prioritize_texture(url, TEXTURE_PRIORITY_VISIBLE);
+	}
 	LOGFN("endDrawImage");
 	return Undefined();
 }
@@ -272,6 +279,52 @@ Handle<Value> defMeasureText(const Arguments& args) {
 	return handle_scope.Close(metrics);
 }
 
+// Batch version of measureText, measureTexts(texts, sizes, fonts) returns an
+// array of widths. sizes and fonts are either arrays matching texts or a
+// single value used for every text.
+Handle<Value> defMeasureTexts(const Arguments& args) {
+	LOGFN("measuretexts");
+	HandleScope handle_scope;
+	if (!args[0]->IsArray()) {
+		return Undefined();
+	}
+	Handle<Array> texts = Handle<Array>::Cast(args[0]);
+	int count = texts->Length();
+	Handle<Array> result = Array::New(count);
+	if (count == 0) {
+		return handle_scope.Close(result);
+	}
+
+	const char **text_strs = (const char**)malloc(count * sizeof(char*));
+	const char **font_strs = (const char**)malloc(count * sizeof(char*));
+	int *sizes = (int*)malloc(count * sizeof(int));
+	int *widths = (int*)malloc(count * sizeof(int));
+	for (int i = 0; i < count; i++) {
+		String::Utf8Value text_str(texts->Get(i));
+		text_strs[i] = strdup(ToCString(text_str));
+		Handle<Value> size = args[1]->IsArray() ? Handle<Array>::Cast(args[1])->Get(i) : args[1];
+		sizes[i] = size->Int32Value() * FONT_SCALE;
+		Handle<Value> font = args[2]->IsArray() ? Handle<Array>::Cast(args[2])->Get(i) : args[2];
+		String::Utf8Value font_str(font);
+		font_strs[i] = strdup(ToCString(font_str));
+	}
+
+	text_manager_measure_texts(font_strs, sizes, text_strs, count, widths);
+
+	for (int i = 0; i < count; i++) {
+		result->Set(i, Number::New(widths[i]));
+		free((char*)text_strs[i]);
+		free((char*)font_strs[i]);
+	}
+	free(text_strs);
+	free(font_strs);
+	free(sizes);
+	free(widths);
+
+	LOGFN("endmeasuretexts");
+	return handle_scope.Close(result);
+}
+
 double measureText(Handle<Object> font_info, char **text) {
 	double width = 0;
 
@@ -751,6 +804,7 @@ Handle<ObjectTemplate> get_context_2d_class_template() {
 	context_2d_class_template->Set(STRING_CACHE_fillRect, FunctionTemplate::New(defFillRect));
 	context_2d_class_template->Set(STRING_CACHE_strokeRect, FunctionTemplate::New(defStrokeRect));
 	context_2d_class_template->Set(STRING_CACHE_measureText, FunctionTemplate::New(defMeasureText));
+	context_2d_class_template->Set(STRING_CACHE_measureTexts, FunctionTemplate::New(defMeasureTexts));
 	context_2d_class_template->Set(STRING_CACHE_fillText, FunctionTemplate::New(defFillText));
 	context_2d_class_template->Set(STRING_CACHE_strokeText, FunctionTemplate::New(defStrokeText));
 	context_2d_class_template->Set(STRING_CACHE_enableScissor, FunctionTemplate::New(defEnableScissor));
@@ -17,10 +17,58 @@
 #include "js/js_socket.h"
 
 #include "platform/socket.h"
+#include "platform/socket_frames.h"
+
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
 
 
 using namespace v8;
 
+// Socket objects by id so binary frames can be handed to their onFrame,
+// weak so they are still collected once JS lets go of them
+static Persistent<Object> *sockets = NULL;
+static int sockets_size = 0;
+
+static void socket_finalize(Persistent<Value> socket, void *param) {
+	int id = (int)(intptr_t)param;
+	if (id < sockets_size) {
+		sockets[id].Clear();
+	}
+	socket.Dispose();
+	socket.Clear();
+}
+
+static void socket_register(int id, Handle<Object> socket) {
+	if (id < 0) {
+		return;
+	}
+	if (id >= sockets_size) {
+		int size = id * 2 + 8;
+		sockets = (Persistent<Object>*)realloc(sockets, size * sizeof(Persistent<Object>));
+		for (int i = sockets_size; i < size; i++) {
+			sockets[i].Clear();
+		}
+		sockets_size = size;
+	}
+	sockets[id] = Persistent<Object>::New(socket);
+	sockets[id].MakeWeak((void*)(intptr_t)id, socket_finalize);
+}
+
+typedef struct socket_frame_t {
+	int length;
+	char data[1];
+} socket_frame;
+
+static void socket_frame_finalize(Persistent<Value> bytes, void *param) {
+	socket_frame *frame = static_cast<socket_frame*>(param);
+	V8::AdjustAmountOfExternalAllocatedMemory(-frame->length);
+	free(frame);
+	bytes.Dispose();
+	bytes.Clear();
+}
+
 Handle<Value> js_socket_send(const Arguments &args) {
 	LOGFN("socket send");
 	int id = args.This()->Get(STRING_CACHE___id)->Int32Value();
@@ -31,6 +79,35 @@ Handle<Value> js_socket_send(const Arguments &args) {
 	return Undefined();
 }
 
+// Takes a byte array (like the ones given to onFrame) or an array of numbers
+Handle<Value> js_socket_send_frame(const Arguments &args) {
+	LOGFN("socket send frame");
+	int id = args.This()->Get(STRING_CACHE___id)->Int32Value();
+	if (!args[0]->IsObject()) {
+		return Undefined();
+	}
+	Handle<Object> data = args[0]->ToObject();
+	if (data->HasIndexedPropertiesInExternalArrayData() &&
+			data->GetIndexedPropertiesExternalArrayDataType() == kExternalUnsignedByteArray) {
+		socket_send_frame(id, (const char*)data->GetIndexedPropertiesExternalArrayData(),
+				data->GetIndexedPropertiesExternalArrayDataLength());
+	} else {
+		int length = data->Get(STRING_CACHE_length)->Int32Value();
+		if (length < 0) {
+			LOG("{socket} WARNING: sendFrame called with a negative length");
+			return Undefined();
+		}
+		char *bytes = (char*)malloc(length > 0 ? length : 1);
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (char)data->Get(i)->Int32Value();
+		}
+		socket_send_frame(id, bytes, length);
+		free(bytes);
+	}
+	LOGFN("end socket send frame");
+	return Undefined();
+}
+
 Handle<Value> js_socket_close(const Arguments &args) {
 	LOGFN("socket close");
 	int id = args.This()->Get(STRING_CACHE___id)->Int32Value();
@@ -42,10 +119,12 @@ Handle<Value> js_socket_close(const Arguments &args) {
 Handle<ObjectTemplate> get_socket_template() {
 	Handle<ObjectTemplate> socket = ObjectTemplate::New();
 	socket->Set(STRING_CACHE_send, FunctionTemplate::New(js_socket_send));
+	socket->Set(STRING_CACHE_sendFrame, FunctionTemplate::New(js_socket_send_frame));
 	socket->Set(STRING_CACHE_close, FunctionTemplate::New(js_socket_close));
 	socket->Set(STRING_CACHE_onConnect, FunctionTemplate::New(js_socket_default_callback));
 	socket->Set(STRING_CACHE_onRead, FunctionTemplate::New(js_socket_default_callback));
 	socket->Set(STRING_CACHE_onClose, FunctionTemplate::New(js_socket_default_callback));
+	socket->Set(STRING_CACHE_onFrame, FunctionTemplate::New(js_socket_default_callback));
 	return socket;
 }
 
@@ -53,14 +132,57 @@ Handle<Value> js_socket_ctor(const Arguments &args) {
 	String::Utf8Value host(args[0]);
 	const char *host_str = ToCString(host);
 	int port = args[1]->Int32Value();
+	// 0 for newline delimited text, 1 for length prefixed binary frames
+	int framing = args.Length() > 2 ? args[2]->Int32Value() : 0;
 	
-	int id = socket_create(host_str, port);
+	int id = socket_create_framed(host_str, port, framing);
 	
 	Handle<Object> socket = get_socket_template()->NewInstance();
 	socket->Set(STRING_CACHE___id, Number::New(id));
+	socket_register(id, socket);
 	return socket;
 }
 
+// Calls the socket's onFrame with the frame as a byte array
+void js_socket_on_frame(int id, const char *data, int length) {
+	Locker l(getIsolate());
+	HandleScope handle_scope;
+	Handle<Context> context = getContext();
+	if (context.IsEmpty()) {
+		LOG("{socket} ERROR: Dropped a frame because the JavaScript engine is not running");
+		return;
+	}
+	Context::Scope context_scope(context);
+	if (id < 0 || id >= sockets_size || sockets[id].IsEmpty()) {
+		LOG("{socket} WARNING: Dropped a frame for socket %d, which is gone", id);
+		return;
+	}
+
+	Handle<Object> socket = sockets[id];
+	Handle<Value> function_object = socket->Get(STRING_CACHE_onFrame);
+	if (function_object.IsEmpty() || !function_object->IsFunction()) {
+		return;
+	}
+
+	socket_frame *frame = (socket_frame*)malloc(sizeof(socket_frame) + length);
+	frame->length = length;
+	memcpy(frame->data, data, length);
+	V8::AdjustAmountOfExternalAllocatedMemory(length);
+
+	Handle<Object> bytes = Object::New();
+	bytes->SetIndexedPropertiesToExternalArrayData(frame->data, kExternalUnsignedByteArray, length);
+	bytes->Set(STRING_CACHE_length, Integer::New(length));
+	Persistent<Object> ref = Persistent<Object>::New(bytes);
+	ref.MakeWeak(frame, socket_frame_finalize);
+
+	TryCatch try_catch;
+	Handle<Value> args[] = { bytes };
+	Handle<Value> result = Handle<Function>::Cast(function_object)->Call(socket, 1, args);
+	if (result.IsEmpty()) {
+		ReportException(&try_catch);
+	}
+}
+
 Handle<Value> js_socket_default_callback(const Arguments &args) {
 	return Undefined();
 }
@@ -26,10 +26,12 @@ using v8::Persistent;
 
 
 Handle<Value> js_socket_send(const Arguments &args);
+Handle<Value> js_socket_send_frame(const Arguments &args);
 Handle<Value> js_socket_close(const Arguments &args);
 Handle<Value> js_socket_default_callback(const Arguments &args);
 Handle<Value> js_socket_ctor(const Arguments &args);
 void js_socket_connected(int id);
 void js_socket_on_data(int id, const char *data);
 void js_socket_error(int id);
+void js_socket_on_frame(int id, const char *data, int length);
 #endif
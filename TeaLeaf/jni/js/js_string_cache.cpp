@@ -210,6 +210,9 @@ Persistent<String> STRING_CACHE_uri;
 Persistent<String> STRING_CACHE_installReferrer;
 Persistent<String> STRING_CACHE_y;
 Persistent<String> STRING_CACHE_doneLoading;
+Persistent<String> STRING_CACHE_sendFrame;
+Persistent<String> STRING_CACHE_onFrame;
+Persistent<String> STRING_CACHE_measureTexts;
 
 
 void js_string_cache_init() {
@@ -419,5 +422,8 @@ void js_string_cache_init() {
 	STRING_CACHE_installReferrer = Persistent<String>::New(String::New("installReferrer"));
 	STRING_CACHE_y = Persistent<String>::New(String::New("y"));
 	STRING_CACHE_doneLoading = Persistent<String>::New(String::New("doneLoading"));
+	STRING_CACHE_sendFrame = Persistent<String>::New(String::New("sendFrame"));
+	STRING_CACHE_onFrame = Persistent<String>::New(String::New("onFrame"));
+	STRING_CACHE_measureTexts = Persistent<String>::New(String::New("measureTexts"));
 
 }
@@ -213,6 +213,9 @@ extern Persistent<String> STRING_CACHE_uri;
 extern Persistent<String> STRING_CACHE_installReferrer;
 extern Persistent<String> STRING_CACHE_y;
 extern Persistent<String> STRING_CACHE_doneLoading;
+extern Persistent<String> STRING_CACHE_sendFrame;
+extern Persistent<String> STRING_CACHE_onFrame;
+extern Persistent<String> STRING_CACHE_measureTexts;
 
 
 #endif
@@ -15,6 +15,7 @@
  * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
  */
 #include "platform/resource_loader.h"
+#include "platform/texture_priority.h"
 #include "platform/platform.h"
 
 extern "C" {
@@ -26,9 +27,11 @@ extern "C" {
 #include "core/core.h"
 }
 #include "js/js.h"
+#include "js/js_socket.h"
 
 #include <signal.h>
 #include <stdlib.h>
+#include <string.h>
 
 // TODO: We should really be using RegisterClass() here to load the native shim
 // methods ahead of time so that during actual invocation it doesn't need to do
@@ -203,6 +206,31 @@ extern "C" {
 		}
 	}
 
+	// Each event in the buffer is its length, its modified UTF-8 text and a
+	// NUL, or for a socket frame the complement of its length, the socket id
+	// and its bytes, see EventBuffer.java
+	void Java_com_tealeaf_NativeShim_dispatchEventBuffer(JNIEnv* env, jobject thiz, jobject events, jint count) {
+		char *data = (char*)env->GetDirectBufferAddress(events);
+		if (data == NULL) {
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			jint length;
+			memcpy(&length, data, sizeof(length));
+			data += sizeof(length);
+			if (length < 0) {
+				jint id;
+				memcpy(&id, data, sizeof(id));
+				data += sizeof(id);
+				js_socket_on_frame(id, data, ~length);
+				data += ~length;
+			} else {
+				core_dispatch_event(data);
+				data += length + 1;
+			}
+		}
+	}
+
 	void Java_com_tealeaf_NativeShim_dispatchInputEvents(JNIEnv* env, jobject thiz, jintArray ids, jintArray types, jintArray xs, jintArray ys, jint count) {
 		jint *id_ints = env->GetIntArrayElements(ids, 0);
 		jint *type_ints = env->GetIntArrayElements(types, 0);
@@ -229,6 +257,7 @@ extern "C" {
 	}
 
 	void Java_com_tealeaf_NativeShim_reloadTextures(JNIEnv *env, jobject thiz) {
+		resource_loader_clear_texture_priorities();
 		texture_manager_reload(texture_manager_get());
 	}
 
@@ -237,14 +266,14 @@ extern "C" {
 	}
 
 	void Java_com_tealeaf_NativeShim_clearTextures(JNIEnv *env, jobject thiz) {
+		resource_loader_clear_texture_priorities();
 		texture_manager_clear_textures(texture_manager_get(), true);
 	}
 
-	void Java_com_tealeaf_NativeShim_onTextureLoaded(JNIEnv *env, jobject thiz, jstring url, jint name, jint width, jint height, jint original_width, jint original_height, jint num_channels) {
+	void Java_com_tealeaf_NativeShim_onTextureLoaded(JNIEnv *env, jobject thiz, jstring url, jint name, jint width, jint height, jint original_width, jint original_height, jint num_channels, jint scale) {
 		char *url_str = NULL;
 		GET_STR(env, url, url_str);
-		//scale is defaulted to 1 currently. i.e. No scaling.
-		int scale = 1;
+		//scale is 1 unless the image was subsampled while decoding
 		texture_manager_on_texture_loaded(texture_manager_get(), url_str,  name, width, height, original_width, original_height, num_channels, scale, false);
 		free(url_str);
 	}
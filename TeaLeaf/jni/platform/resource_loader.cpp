@@ -15,6 +15,7 @@
  * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
  */
 #include "platform/resource_loader.h"
+#include "platform/texture_priority.h"
 #include <fcntl.h>
 #include <sys/mman.h>
 #include <sys/types.h>
@@ -117,6 +118,36 @@ CEXPORT void launch_remote_texture_load(const char *url) {
 	env->DeleteLocalRef(s);
 }
 
+// Hashes of the urls most recently passed to Java, so a texture drawn every
+// frame while it loads only costs one call
+#define RECENT_PRIORITIES 64
+static unsigned int recent_priorities[RECENT_PRIORITIES];
+
+void resource_loader_prioritize_texture(const char *url, int priority) {
+	unsigned int hash = 5381;
+	for (const char *c = url; *c; c++) {
+		hash = hash * 33 + (unsigned char)*c;
+	}
+	hash = hash * 3 + (unsigned int)(priority + 1);
+	hash |= 1;
+	unsigned int *recent = &recent_priorities[hash % RECENT_PRIORITIES];
+	if (*recent == hash) {
+		return;
+	}
+	*recent = hash;
+
+	native_shim *shim = get_native_shim();
+	JNIEnv *env = shim->env;
+	jstring s = env->NewStringUTF(url);
+	jmethodID prioritize_id = env->GetMethodID(shim->type, "prioritizeTexture", "(Ljava/lang/String;I)V");
+	env->CallVoidMethod(shim->instance, prioritize_id, s, (jint) priority);
+	env->DeleteLocalRef(s);
+}
+
+void resource_loader_clear_texture_priorities() {
+	memset(recent_priorities, 0, sizeof(recent_priorities));
+}
+
 CEXPORT bool resource_loader_load_image_with_c(texture_2d * texture) {
 	texture->pixel_data=NULL;
 
@@ -15,6 +15,7 @@
  * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
  */
 #include "platform/socket.h"
+#include "platform/socket_frames.h"
 #include "platform/platform.h"
 
 
@@ -41,6 +42,20 @@ void socket_close(int id) {
 	env->CallVoidMethod(manager, close_id, jid);
 }
 
+void socket_send_frame(int id, const char *data, int length) {
+	native_shim *shim = get_native_shim();
+	JNIEnv *env = shim->env;
+	jobject manager = shim->instance;
+	jclass type = shim->type;
+	jbyteArray jdata = env->NewByteArray(length);
+	env->SetByteArrayRegion(jdata, 0, length, (const jbyte*)data);
+	jint jid = (jint) id;
+
+	jmethodID send_id = env->GetMethodID(type, "sendFrame", "(I[B)V");
+	env->CallVoidMethod(manager, send_id, jid, jdata);
+	env->DeleteLocalRef(jdata);
+}
+
 int socket_create(const char *host, int port) {
 	native_shim *shim = get_native_shim();
 	JNIEnv *env = shim->env;
@@ -54,3 +69,17 @@ int socket_create(const char *host, int port) {
 	return (int) id;
 }
 
+int socket_create_framed(const char *host, int port, int framing) {
+	native_shim *shim = get_native_shim();
+	JNIEnv *env = shim->env;
+	jobject manager = shim->instance;
+	jclass type = shim->type;
+	jstring jhost = env->NewStringUTF(host);
+	jint jport = (jint) port;
+	jint jframing = (jint) framing;
+	jmethodID connect_id = env->GetMethodID(type, "openSocket", "(Ljava/lang/String;II)I");
+	jint id = env->CallIntMethod(manager, connect_id, jhost, jport, jframing);
+	env->DeleteLocalRef(jhost);
+	return (int) id;
+}
+
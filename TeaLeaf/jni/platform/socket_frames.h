@@ -0,0 +1,25 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ 
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ 
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+#ifndef SOCKET_FRAMES_H
+#define SOCKET_FRAMES_H
+
+// Binary framing for sockets, alongside the text functions in socket.h.
+// framing is one of TeaLeafSocket's FRAMING_ constants.
+int socket_create_framed(const char *host, int port, int framing);
+void socket_send_frame(int id, const char *data, int length);
+
+#endif
@@ -21,6 +21,7 @@ extern "C" {
 #include "core/rgba.h"
 }
 #include "platform/text_manager.h"
+#include "platform/text_manager_batch.h"
 #include <stdlib.h>
 #include <stdio.h>
 
@@ -68,3 +69,35 @@ int text_manager_measure_text(const char *font_name, int size, const char *text)
 
 	return (int) width;
 }
+
+// Each string uses the font and size at the same index; widths receives
+// the results.
+void text_manager_measure_texts(const char **font_names, const int *sizes, const char **texts, int count, int *widths) {
+	native_shim *shim = get_native_shim();
+	JNIEnv *env = shim->env;
+	jmethodID method = env->GetMethodID(shim->type, "measureTexts", "([Ljava/lang/String;[I[Ljava/lang/String;)[I");
+
+	jclass string_class = env->FindClass("java/lang/String");
+	jobjectArray jfonts = env->NewObjectArray(count, string_class, NULL);
+	jobjectArray jtexts = env->NewObjectArray(count, string_class, NULL);
+	jintArray jsizes = env->NewIntArray(count);
+
+	env->SetIntArrayRegion(jsizes, 0, count, (const jint*) sizes);
+	for (int i = 0; i < count; i++) {
+		jstring jfont = env->NewStringUTF(font_names[i]);
+		jstring jtext = env->NewStringUTF(texts[i]);
+		env->SetObjectArrayElement(jfonts, i, jfont);
+		env->SetObjectArrayElement(jtexts, i, jtext);
+		env->DeleteLocalRef(jfont);
+		env->DeleteLocalRef(jtext);
+	}
+
+	jintArray jwidths = (jintArray) env->CallObjectMethod(shim->instance, method, jfonts, jsizes, jtexts);
+	env->GetIntArrayRegion(jwidths, 0, count, (jint*) widths);
+
+	env->DeleteLocalRef(jwidths);
+	env->DeleteLocalRef(jsizes);
+	env->DeleteLocalRef(jtexts);
+	env->DeleteLocalRef(jfonts);
+	env->DeleteLocalRef(string_class);
+}
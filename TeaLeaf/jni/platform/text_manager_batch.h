@@ -0,0 +1,24 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ 
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ 
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+#ifndef TEXT_MANAGER_BATCH_H
+#define TEXT_MANAGER_BATCH_H
+
+// Measures count strings with a single call into Java, alongside
+// text_manager_measure_text in text_manager.h
+void text_manager_measure_texts(const char **font_names, const int *sizes, const char **texts, int count, int *widths);
+
+#endif
@@ -0,0 +1,30 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ 
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ 
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+#ifndef TEXTURE_PRIORITY_H
+#define TEXTURE_PRIORITY_H
+
+// Same values as TextureLoader's PRIORITY_ constants
+#define TEXTURE_PRIORITY_DEFAULT 0
+#define TEXTURE_PRIORITY_VISIBLE 1
+
+// Moves a texture load up the Java loader's queue, without starting a load
+void resource_loader_prioritize_texture(const char *url, int priority);
+// Forgets which priorities were already sent, for when the Java loader's
+// queue is cleared and textures are loaded again
+void resource_loader_clear_texture_priorities();
+
+#endif
@@ -0,0 +1,100 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+// Reusable ARGB_8888 bitmaps used to stage images into power of two textures.
+// Bitmaps are bucketed by their dimensions and the pool holds at most
+// maxBytes worth of idle bitmaps; anything beyond that is recycled.
+public class BitmapPool {
+	private HashMap<Long, ArrayList<Bitmap>> buckets = new HashMap<Long, ArrayList<Bitmap>>();
+	private int maxBytes;
+	private int pooledBytes = 0;
+	private int hits = 0, misses = 0;
+
+	public BitmapPool(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	private static Long key(int width, int height) {
+		return Long.valueOf(((long)width << 32) | (height & 0xffffffffL));
+	}
+
+	// Returns a cleared bitmap of the given size, reusing a pooled one if possible
+	public Bitmap get(int width, int height) {
+		Bitmap bmp = null;
+		synchronized (this) {
+			ArrayList<Bitmap> bucket = buckets.get(key(width, height));
+			if (bucket != null && bucket.size() > 0) {
+				bmp = bucket.remove(bucket.size() - 1);
+				pooledBytes -= ImageCache.getByteCount(bmp);
+				hits++;
+			} else {
+				misses++;
+			}
+		}
+
+		if (bmp != null) {
+			bmp.eraseColor(Color.TRANSPARENT);
+		} else {
+			bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		}
+		return bmp;
+	}
+
+	// Hands a bitmap back to the pool, or recycles it if the pool is full
+	public void release(Bitmap bmp) {
+		if (bmp == null || bmp.isRecycled()) {
+			return;
+		}
+
+		int size = ImageCache.getByteCount(bmp);
+		synchronized (this) {
+			if (bmp.isMutable() && bmp.getConfig() == Bitmap.Config.ARGB_8888 && pooledBytes + size <= maxBytes) {
+				Long key = key(bmp.getWidth(), bmp.getHeight());
+				ArrayList<Bitmap> bucket = buckets.get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<Bitmap>();
+					buckets.put(key, bucket);
+				}
+				bucket.add(bmp);
+				pooledBytes += size;
+				return;
+			}
+		}
+		bmp.recycle();
+	}
+
+	public synchronized void clear() {
+		for (ArrayList<Bitmap> bucket : buckets.values()) {
+			for (Bitmap bmp : bucket) {
+				bmp.recycle();
+			}
+		}
+		buckets.clear();
+		pooledBytes = 0;
+	}
+
+	public synchronized String toString() {
+		return "{hits=" + hits + ", misses=" + misses + ", bytes=" + pooledBytes + "/" + maxBytes + "}";
+	}
+}
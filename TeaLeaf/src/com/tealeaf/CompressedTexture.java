@@ -0,0 +1,294 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+
+// Loads pre-compressed textures (ETC1/ETC2 in PKM files, ETC1/ETC2/ASTC in
+// KTX files) so they can be uploaded with glCompressedTexImage2D without
+// being decoded to ARGB_8888 first.
+public class CompressedTexture {
+	public static final int GL_ETC1_RGB8_OES = 0x8D64;
+	public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+	public static final int GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2 = 0x9276;
+	public static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+
+	// Container files are looked up next to the image, in this order
+	private static final String[] EXTENSIONS = {".ktx", ".pkm"};
+
+	// Key/value entries giving the size of a KTX texture before it was
+	// padded to a power of two, as decimal strings
+	private static final String KTX_ORIGINAL_WIDTH = "GCOriginalWidth";
+	private static final String KTX_ORIGINAL_HEIGHT = "GCOriginalHeight";
+
+	private static final byte[] KTX_IDENTIFIER = {
+		(byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+	};
+
+	// Formats reported by the current GL context
+	private static HashSet<Integer> supportedFormats = new HashSet<Integer>();
+
+	// NOTE: Must be called from the GLThread
+	public static void detectSupportedFormats() {
+		int[] count = new int[1];
+		GLES20.glGetIntegerv(GLES20.GL_NUM_COMPRESSED_TEXTURE_FORMATS, count, 0);
+		int[] formats = new int[Math.max(count[0], 1)];
+		if (count[0] > 0) {
+			GLES20.glGetIntegerv(GLES20.GL_COMPRESSED_TEXTURE_FORMATS, formats, 0);
+		}
+
+		synchronized (supportedFormats) {
+			supportedFormats.clear();
+			for (int i = 0; i < count[0]; i++) {
+				supportedFormats.add(formats[i]);
+			}
+		}
+		logger.log("{texture}", count[0], "compressed texture formats supported");
+	}
+
+	public static boolean isSupported(int format) {
+		synchronized (supportedFormats) {
+			return supportedFormats.contains(format);
+		}
+	}
+
+	private static boolean hasSupportedFormats() {
+		synchronized (supportedFormats) {
+			return !supportedFormats.isEmpty();
+		}
+	}
+
+	// Returns true if the format has no alpha channel
+	public static boolean isOpaque(int format) {
+		return format == GL_ETC1_RGB8_OES || format == GL_COMPRESSED_RGB8_ETC2;
+	}
+
+	// Looks for a compressed container next to the resolved image path and
+	// loads it, returns null if there is none or if it can't be used
+	public static TextureData load(String url, String path) {
+		if (!hasSupportedFormats() || path == null || !path.startsWith("/")) {
+			return null;
+		}
+
+		int query = path.indexOf('?');
+		if (query != -1) {
+			path = path.substring(0, query);
+		}
+		int dot = path.lastIndexOf('.');
+		if (dot == -1 || dot < path.lastIndexOf('/')) {
+			return null;
+		}
+
+		String base = path.substring(0, dot);
+		for (String extension : EXTENSIONS) {
+			File file = new File(base + extension);
+			if (!file.exists()) {
+				continue;
+			}
+
+			try {
+				TextureData td = extension.equals(".ktx") ? loadKTX(url, file, path) : loadPKM(url, file);
+				if (td != null) {
+					return td;
+				}
+			} catch (IOException e) {
+				logger.log(e);
+			}
+		}
+		return null;
+	}
+
+	private static TextureData loadPKM(String url, File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			byte[] magic = new byte[4];
+			in.readFully(magic);
+			if (magic[0] != 'P' || magic[1] != 'K' || magic[2] != 'M' || magic[3] != ' ') {
+				logger.log("{texture} WARNING: Bad PKM header in", file);
+				return null;
+			}
+			in.readUnsignedShort(); // version
+			int type = in.readUnsignedShort();
+			int width = in.readUnsignedShort();
+			int height = in.readUnsignedShort();
+			int originalWidth = in.readUnsignedShort();
+			int originalHeight = in.readUnsignedShort();
+
+			int format, blockSize;
+			switch (type) {
+				case 0: format = GL_ETC1_RGB8_OES; blockSize = 8; break;
+				case 1: format = GL_COMPRESSED_RGB8_ETC2; blockSize = 8; break;
+				case 3: format = GL_COMPRESSED_RGBA8_ETC2_EAC; blockSize = 16; break;
+				case 4: format = GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2; blockSize = 8; break;
+				default:
+					logger.log("{texture} WARNING: Unknown PKM format", type, "in", file);
+					return null;
+			}
+
+			int size = (width / 4) * (height / 4) * blockSize;
+			return createTextureData(url, file, in, format, size, width, height, originalWidth, originalHeight);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static TextureData loadKTX(String url, File file, String sourcePath) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			byte[] header = new byte[64];
+			in.readFully(header);
+			for (int i = 0; i < KTX_IDENTIFIER.length; i++) {
+				if (header[i] != KTX_IDENTIFIER[i]) {
+					logger.log("{texture} WARNING: Bad KTX header in", file);
+					return null;
+				}
+			}
+
+			ByteBuffer fields = ByteBuffer.wrap(header);
+			fields.order(ByteOrder.LITTLE_ENDIAN);
+			if (fields.getInt(12) != 0x04030201) {
+				fields.order(ByteOrder.BIG_ENDIAN);
+			}
+			int glType = fields.getInt(16);
+			int format = fields.getInt(28);
+			int width = fields.getInt(36);
+			int height = fields.getInt(40);
+			int keyValueBytes = fields.getInt(60);
+
+			if (glType != 0) {
+				logger.log("{texture} WARNING: KTX file is not compressed", file);
+				return null;
+			}
+
+			byte[] keyValues = new byte[keyValueBytes];
+			in.readFully(keyValues);
+			ByteBuffer metadata = ByteBuffer.wrap(keyValues).order(fields.order());
+			int originalWidth = readKTXInt(metadata, KTX_ORIGINAL_WIDTH, -1);
+			int originalHeight = readKTXInt(metadata, KTX_ORIGINAL_HEIGHT, -1);
+			if (originalWidth <= 0 || originalHeight <= 0 || originalWidth > width || originalHeight > height) {
+				// Unlike PKM, KTX has no field for the size before padding, so
+				// without the metadata fall back to the source image's size
+				int[] bounds = getSourceSize(sourcePath);
+				if (bounds == null) {
+					originalWidth = width;
+					originalHeight = height;
+				} else if (bounds[0] <= width && bounds[1] <= height) {
+					originalWidth = bounds[0];
+					originalHeight = bounds[1];
+				} else {
+					logger.log("{texture} WARNING: KTX file is smaller than its source image", file);
+					return null;
+				}
+			}
+
+			byte[] sizeBytes = new byte[4];
+			in.readFully(sizeBytes);
+			int size = ByteBuffer.wrap(sizeBytes).order(fields.order()).getInt();
+			return createTextureData(url, file, in, format, size, width, height, originalWidth, originalHeight);
+		} finally {
+			in.close();
+		}
+	}
+
+	// Looks up an integer value in KTX key/value data, where each entry is a
+	// byte count followed by a NUL terminated key and value, padded to 4 bytes
+	private static int readKTXInt(ByteBuffer metadata, String key, int defaultValue) {
+		while (metadata.remaining() >= 4) {
+			int length = metadata.getInt();
+			if (length < 0 || length > metadata.remaining()) {
+				break;
+			}
+			int start = metadata.position();
+			int end = start + length;
+			int nul = start;
+			while (nul < end && metadata.get(nul) != 0) {
+				nul++;
+			}
+			try {
+				byte[] bytes = metadata.array();
+				if (nul < end && new String(bytes, start, nul - start, "UTF-8").equals(key)) {
+					int valueEnd = nul + 1;
+					while (valueEnd < end && bytes[valueEnd] != 0) {
+						valueEnd++;
+					}
+					return Integer.parseInt(new String(bytes, nul + 1, valueEnd - nul - 1, "UTF-8").trim());
+				}
+			} catch (UnsupportedEncodingException e) {
+				return defaultValue;
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+			metadata.position(Math.min(metadata.limit(), end + (3 - (length + 3) % 4)));
+		}
+		return defaultValue;
+	}
+
+	// Size of the image a compressed container was made from, or null if it
+	// isn't there or can't be read
+	private static int[] getSourceSize(String path) {
+		if (!new File(path).exists()) {
+			return null;
+		}
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+		return new int[] {options.outWidth, options.outHeight};
+	}
+
+	private static TextureData createTextureData(String url, File file, DataInputStream in, int format, int size,
+			int width, int height, int originalWidth, int originalHeight) throws IOException {
+		if (!isSupported(format)) {
+			return null;
+		}
+		// Texture wrapping is set to repeat, which needs power of two sizes
+		if (width != TextureLoader.getNextHighestPO2(width) || height != TextureLoader.getNextHighestPO2(height)) {
+			logger.log("{texture} WARNING: Compressed texture is not a power of two", file);
+			return null;
+		}
+
+		byte[] bytes = new byte[size];
+		in.readFully(bytes);
+		ByteBuffer data = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+		data.put(bytes);
+		data.position(0);
+
+		TextureData td = new TextureData(url, -1, width, height, originalWidth, originalHeight, true);
+		td.compressedData = data;
+		td.compressedFormat = format;
+		td.numChannels = isOpaque(format) ? 3 : 4;
+		return td;
+	}
+
+	// NOTE: Must be called from the GLThread with the target texture bound
+	public static void upload(TextureData td) {
+		GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, td.compressedFormat, td.width, td.height, 0,
+				td.compressedData.capacity(), td.compressedData);
+	}
+}
@@ -0,0 +1,105 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+// Limits how many bytes of decoded images can be in flight between the
+// decoder threads and the GL upload. A decode that would go over the budget
+// waits until earlier images have been uploaded and their memory released.
+public class DecodeAdmission {
+	// Safety valve so a leaked reservation can't stall the loader forever
+	private static final long MAX_WAIT_MS = 2000;
+
+	private long budget;
+	private long limit;
+	private long inFlight = 0;
+	private long peakInFlight = 0;
+	private int waiting = 0;
+	private int throttleCount = 0;
+	private int outOfMemoryCount = 0;
+
+	public DecodeAdmission(long budget) {
+		this.budget = Math.max(1, budget);
+		this.limit = this.budget;
+	}
+
+	// Blocks until there is room for the given number of bytes, which must be
+	// passed to release() later. Returns how many ms the caller was held back.
+	public synchronized long acquire(long bytes) throws InterruptedException {
+		long waited = 0;
+		if (inFlight > 0 && inFlight + bytes > limit) {
+			throttleCount++;
+			waiting++;
+			long start = System.currentTimeMillis();
+			try {
+				while (inFlight > 0 && inFlight + bytes > limit) {
+					long remaining = start + MAX_WAIT_MS - System.currentTimeMillis();
+					if (remaining <= 0) {
+						logger.log("{texture} WARNING: Decode admission timed out, in flight", inFlight, "bytes");
+						break;
+					}
+					wait(remaining);
+				}
+			} finally {
+				waiting--;
+			}
+			waited = Math.max(1, System.currentTimeMillis() - start);
+		}
+
+		add(bytes);
+		return waited;
+	}
+
+	// Accounts for bytes that are already allocated, without waiting
+	public synchronized int reserve(int bytes) {
+		add(bytes);
+		return bytes;
+	}
+
+	private void add(long bytes) {
+		inFlight += bytes;
+		peakInFlight = Math.max(peakInFlight, inFlight);
+	}
+
+	public synchronized void release(long bytes) {
+		if (bytes <= 0) {
+			return;
+		}
+		inFlight = Math.max(0, inFlight - bytes);
+		// Once memory has been freed, go back to the full budget
+		if (inFlight == 0) {
+			limit = budget;
+		}
+		notifyAll();
+	}
+
+	// Called when a decode ran out of memory anyway: hold further decodes
+	// until what is already in flight has been released
+	public synchronized void onOutOfMemory() {
+		outOfMemoryCount++;
+		limit = Math.max(1, Math.min(limit, inFlight));
+	}
+
+	public synchronized int getWaiting() { return waiting; }
+	public synchronized int getThrottleCount() { return throttleCount; }
+	public synchronized int getOutOfMemoryCount() { return outOfMemoryCount; }
+	public synchronized long getInFlight() { return inFlight; }
+
+	public synchronized String toString() {
+		return "{inFlight=" + inFlight + "/" + limit + ", peak=" + peakInFlight + ", waiting=" + waiting +
+				", throttled=" + throttleCount + ", outOfMemory=" + outOfMemoryCount + "}";
+	}
+}
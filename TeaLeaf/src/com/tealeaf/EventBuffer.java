@@ -0,0 +1,103 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Packs a frame's events into one reusable direct buffer so they can be
+// handed to native code in a single call. Each event is written as its byte
+// length (a native order int), its text in modified UTF-8 (the encoding
+// GetStringUTFChars produces) and a terminating NUL, so native code can
+// dispatch every event in place without copying it.
+// A binary socket frame is written as the bitwise complement of its length
+// (so always negative), the socket id and the frame's bytes.
+public class EventBuffer {
+	private ByteBuffer buffer;
+	private int count = 0;
+
+	public EventBuffer(int capacity) {
+		buffer = allocate(Math.max(capacity, 64));
+	}
+
+	private static ByteBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	}
+
+	public void clear() {
+		buffer.clear();
+		count = 0;
+	}
+
+	public void put(String event) {
+		int length = event.length();
+		// Length, at most 3 bytes per char and the NUL
+		ensureCapacity(4 + length * 3 + 1);
+
+		int start = buffer.position();
+		buffer.putInt(0);
+		for (int i = 0; i < length; i++) {
+			char c = event.charAt(i);
+			if (c != 0 && c < 0x80) {
+				buffer.put((byte)c);
+			} else if (c < 0x800) {
+				buffer.put((byte)(0xc0 | (c >> 6)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			} else {
+				buffer.put((byte)(0xe0 | (c >> 12)));
+				buffer.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			}
+		}
+		buffer.putInt(start, buffer.position() - start - 4);
+		buffer.put((byte)0);
+		count++;
+	}
+
+	public void putFrame(int socketId, byte[] frame) {
+		ensureCapacity(8 + frame.length);
+		buffer.putInt(~frame.length);
+		buffer.putInt(socketId);
+		buffer.put(frame);
+		count++;
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+
+		ByteBuffer larger = allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		larger.put(buffer);
+		buffer = larger;
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	// Number of events in the buffer
+	public int getCount() {
+		return count;
+	}
+
+	// Number of bytes used by the events in the buffer
+	public int getSize() {
+		return buffer.position();
+	}
+}
@@ -1,37 +1,188 @@
 package com.tealeaf;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.tealeaf.event.Event;
+import com.tealeaf.event.EventQueueStatsEvent;
 
+// Events are pushed from any thread and drained once per frame on the
+// GLThread. The queue is lock-free, producers never wait on each other or on
+// the frame being dispatched. A frame can be limited to a number of events
+// or bytes, anything over the limit is carried over to the next frame.
 public class EventQueue {
 
-	private static Queue<String> events = new java.util.concurrent.ConcurrentLinkedQueue<String>();
+	private static class QueuedEvent {
+		String data;
+		// Only the latest event with the same key is dispatched each frame
+		String coalesceKey;
+		// Set instead of data for a binary socket frame
+		byte[] frame;
+		int socketId;
 
-	private static Object lock = new Object();
+		QueuedEvent(String data, String coalesceKey) {
+			this.data = data;
+			this.coalesceKey = coalesceKey;
+		}
 
-	public static void pushEvent(Event e) {
-		synchronized (lock) {
-			events.add(e.pack());
+		QueuedEvent(int socketId, byte[] frame) {
+			this.socketId = socketId;
+			this.frame = frame;
+		}
+
+		int getSize() {
+			return data != null ? data.length() : frame.length;
 		}
 	}
 
-	protected static String popEvent() {
-		return events.poll();
+	private static Queue<QueuedEvent> events = new ConcurrentLinkedQueue<QueuedEvent>();
+	// Number of events pushed and not yet taken off the queue
+	private static AtomicInteger pending = new AtomicInteger();
+
+	// Whether events that declare a coalesce key are coalesced, off by default
+	private static volatile boolean coalescing = false;
+	private static volatile int coalescedCount = 0;
+
+	// Per frame dispatch limits, 0 for no limit
+	private static volatile int maxEventsPerFrame = 0;
+	private static volatile int maxBytesPerFrame = 0;
+	private static volatile int deferredCount = 0;
+	private static volatile int highWaterMark = 0;
+	private static long lastStatsTime = 0;
+	private static final long STATS_INTERVAL_MS = 1000;
+
+	// Reused every frame by dispatchEvents, which only runs on the GLThread
+	private static EventBuffer buffer = new EventBuffer(16 * 1024);
+	// Events taken off the queue, starting with those carried over from the last frame
+	private static ArrayList<QueuedEvent> frameEvents = new ArrayList<QueuedEvent>();
+	private static volatile int carriedOver = 0;
+	private static HashMap<String, Integer> latestByKey = new HashMap<String, Integer>();
+
+	public static void pushEvent(Event e) {
+		events.add(new QueuedEvent(e.pack(), coalescing ? e.coalesceKey() : null));
+		pending.incrementAndGet();
+	}
+
+	// Queues a frame read by a binary TeaLeafSocket, it is handed to the
+	// socket's JS object as bytes in order with the other events
+	public static void pushSocketFrame(int socketId, byte[] frame) {
+		events.add(new QueuedEvent(socketId, frame));
+		pending.incrementAndGet();
+	}
+
+	public static void setCoalescing(boolean enabled) {
+		coalescing = enabled;
+	}
+
+	// Limits how many events, and roughly how many bytes of them, are handed
+	// to JS each frame, 0 for no limit. At least one event is always dispatched.
+	public static void setDispatchBudget(int maxEvents, int maxBytes) {
+		maxEventsPerFrame = Math.max(0, maxEvents);
+		maxBytesPerFrame = Math.max(0, maxBytes);
+	}
+
+	// Number of events dropped because a later one replaced them
+	public static int getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	// Number of events waiting to be dispatched
+	public static int getDepth() {
+		return pending.get() + carriedOver;
 	}
 
-	private static String[] getEvents() {
-		String[] ret;
-		synchronized (lock) {
-			ret = new String[events.size()];
-			events.toArray(ret);
-			events.clear();
+	// Largest number of events waiting at the start of a frame
+	public static int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	// Number of times an event was carried over to the next frame
+	public static int getDeferredCount() {
+		return deferredCount;
+	}
+
+	// NOTE: Socket frames can't be returned as a String and are skipped
+	protected static String popEvent() {
+		QueuedEvent event;
+		while ((event = events.poll()) != null) {
+			pending.decrementAndGet();
+			if (event.data != null) {
+				return event.data;
+			}
 		}
-		return ret;
+		return null;
 	}
 
+	// Hands the queued events to native code in one buffer, as many as the
+	// frame's budget allows
 	public static void dispatchEvents() {
-		String[] e = getEvents();
-		NativeShim.dispatchEvents(e);
+		// Only take what was queued when the frame started, so producers
+		// can't keep the GLThread here
+		int count = pending.get();
+		for (int i = 0; i < count; i++) {
+			QueuedEvent event = events.poll();
+			if (event == null) {
+				break;
+			}
+			pending.decrementAndGet();
+			frameEvents.add(event);
+		}
+
+		int size = frameEvents.size();
+		if (size > highWaterMark) {
+			highWaterMark = size;
+		}
+
+		latestByKey.clear();
+		for (int i = 0; i < size; i++) {
+			String key = frameEvents.get(i).coalesceKey;
+			if (key != null) {
+				latestByKey.put(key, i);
+			}
+		}
+
+		buffer.clear();
+		int maxEvents = maxEventsPerFrame, maxBytes = maxBytesPerFrame;
+		int next = 0;
+		for (; next < size; next++) {
+			QueuedEvent event = frameEvents.get(next);
+			if (event.coalesceKey != null && latestByKey.get(event.coalesceKey) != next) {
+				coalescedCount++;
+				continue;
+			}
+			if (buffer.getCount() > 0 && ((maxEvents > 0 && buffer.getCount() >= maxEvents) ||
+					(maxBytes > 0 && buffer.getSize() + event.getSize() > maxBytes))) {
+				break;
+			}
+			if (event.data != null) {
+				buffer.put(event.data);
+			} else {
+				buffer.putFrame(event.socketId, event.frame);
+			}
+		}
+
+		// Carry the rest over to the next frame
+		frameEvents.subList(0, next).clear();
+		carriedOver = frameEvents.size();
+		if (carriedOver > 0) {
+			deferredCount += carriedOver;
+			pushStats();
+		}
+
+		if (buffer.getCount() > 0) {
+			NativeShim.dispatchEventBuffer(buffer.getBuffer(), buffer.getCount());
+		}
+	}
+
+	// Lets JS know it is falling behind, at most once per interval
+	private static void pushStats() {
+		long now = System.currentTimeMillis();
+		if (now - lastStatsTime >= STATS_INTERVAL_MS) {
+			lastStatsTime = now;
+			pushEvent(new EventQueueStatsEvent(getDepth(), highWaterMark, deferredCount, coalescedCount));
+		}
 	}
 }
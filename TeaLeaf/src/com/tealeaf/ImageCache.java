@@ -0,0 +1,146 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.util.IdentityHashMap;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+// Keeps decoded images around so that reloading textures after the GL context
+// is lost does not have to read and decode them again.
+// NOTE: The cache owns the bitmaps put in it and hands out the same bitmap to
+// every caller, counting the references. Callers must give them back with
+// ImageCache.recycle() rather than Bitmap.recycle(); a bitmap is only
+// recycled once it has left the cache and nobody is using it.
+public class ImageCache {
+	private LruCache<String, Entry> cache;
+
+	// Every cached bitmap that is in a cache or still referenced, for recycle()
+	private static final IdentityHashMap<Bitmap, Entry> entries = new IdentityHashMap<Bitmap, Entry>();
+
+	private static class Entry {
+		Bitmap bitmap;
+		int[] info;
+		int references;
+		boolean removed = false;
+
+		Entry(Bitmap bitmap, int[] info, int references) {
+			this.bitmap = bitmap;
+			this.info = info;
+			this.references = references;
+		}
+	}
+
+	public ImageCache(int maxBytes) {
+		cache = new LruCache<String, Entry>(Math.max(1, maxBytes)) {
+			@Override
+			protected int sizeOf(String key, Entry entry) {
+				return getByteCount(entry.bitmap);
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+				if (newValue == null || oldValue.bitmap != newValue.bitmap) {
+					synchronized (entries) {
+						oldValue.removed = true;
+						if (oldValue.references == 0) {
+							entries.remove(oldValue.bitmap);
+							oldValue.bitmap.recycle();
+						}
+					}
+				}
+			}
+		};
+	}
+
+	// Gives back a bitmap from get() or put(). Bitmaps that were never cached
+	// are recycled right away.
+	public static void recycle(Bitmap bmp) {
+		if (bmp == null) {
+			return;
+		}
+		synchronized (entries) {
+			Entry entry = entries.get(bmp);
+			if (entry != null) {
+				if (--entry.references > 0 || !entry.removed) {
+					return;
+				}
+				entries.remove(bmp);
+			}
+		}
+		bmp.recycle();
+	}
+
+	// Returns the cached image or null if it is not cached; the caller must
+	// recycle() it when done. If info is given, it is filled in with the info
+	// the image was cached with.
+	public Bitmap get(String url, int[] info) {
+		synchronized (cache) {
+			Entry entry = cache.get(url);
+			if (entry == null || entry.bitmap.isRecycled()) {
+				return null;
+			}
+			if (info != null && entry.info != null) {
+				System.arraycopy(entry.info, 0, info, 0, Math.min(info.length, entry.info.length));
+			}
+			synchronized (entries) {
+				entry.references++;
+			}
+			return entry.bitmap;
+		}
+	}
+
+	// Takes ownership of bmp, which the caller keeps using and must recycle()
+	// like a bitmap from get(). Images too big for the cache are not kept.
+	public void put(String url, Bitmap bmp, int[] info) {
+		if (bmp == null || getByteCount(bmp) > cache.maxSize()) {
+			return;
+		}
+		Entry entry = new Entry(bmp, info == null ? null : info.clone(), 1);
+		synchronized (cache) {
+			synchronized (entries) {
+				if (entries.containsKey(bmp)) {
+					return;
+				}
+				entries.put(bmp, entry);
+			}
+			cache.put(url, entry);
+		}
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.evictAll();
+		}
+	}
+
+	public int getHitCount() { return cache.hitCount(); }
+	public int getMissCount() { return cache.missCount(); }
+	public int getEvictionCount() { return cache.evictionCount(); }
+	public int getSize() { return cache.size(); }
+	public int getMaxSize() { return cache.maxSize(); }
+
+	public String toString() {
+		return "{hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() +
+				", bytes=" + getSize() + "/" + getMaxSize() + "}";
+	}
+
+	public static int getByteCount(Bitmap bmp) {
+		return bmp.getRowBytes() * bmp.getHeight();
+	}
+}
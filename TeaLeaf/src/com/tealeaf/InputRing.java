@@ -0,0 +1,197 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.util.ArrayList;
+
+// Touch samples passed from the UI thread (the only producer) to the GLThread
+// (the only consumer). Samples go through a lock-free ring; if the ring is
+// full they spill into an overflow list, where each pointer's latest MOVE
+// is replaced by the next one instead of being queued. Samples are only
+// dropped if the overflow list reaches its limit as well.
+public class InputRing {
+	public static final int DOWN = 1;
+	public static final int MOVE = 2;
+	public static final int UP = 3;
+
+	private static final int MAX_OVERFLOW = 1024;
+
+	private final int capacity, mask;
+	private final int[] ids, types, xs, ys;
+	private final long[] times;
+	// Next slot the producer writes, only written by the producer
+	private volatile int head = 0;
+	// Next slot the consumer reads, only written by the consumer
+	private volatile int tail = 0;
+
+	// Samples that didn't fit in the ring, all newer than those in the ring
+	private static class Sample {
+		int id, type, x, y;
+		long time;
+	}
+	private final Object overflowLock = new Object();
+	private final ArrayList<Sample> overflow = new ArrayList<Sample>();
+	private volatile boolean overflowing = false;
+
+	private volatile int coalescedCount = 0;
+	private volatile int droppedCount = 0;
+
+	// Samples taken by the last drain(), only used by the consumer
+	private int[] batchIds, batchTypes, batchXs, batchYs;
+	private long[] batchTimes;
+	private int batchCount = 0;
+
+	public InputRing(int capacity) {
+		int size = TextureLoader.getNextHighestPO2(Math.max(capacity, 2));
+		this.capacity = size;
+		this.mask = size - 1;
+		ids = new int[size];
+		types = new int[size];
+		xs = new int[size];
+		ys = new int[size];
+		times = new long[size];
+		allocateBatch(size);
+	}
+
+	// NOTE: Must only be called from the producer thread
+	public void push(int id, int type, int x, int y, long time) {
+		if (overflowing) {
+			synchronized (overflowLock) {
+				if (overflowing) {
+					addOverflow(id, type, x, y, time);
+					return;
+				}
+			}
+		}
+
+		int h = head;
+		if (h - tail < capacity) {
+			int i = h & mask;
+			ids[i] = id;
+			types[i] = type;
+			xs[i] = x;
+			ys[i] = y;
+			times[i] = time;
+			// Publishes the slot to the consumer
+			head = h + 1;
+			return;
+		}
+
+		synchronized (overflowLock) {
+			addOverflow(id, type, x, y, time);
+			overflowing = true;
+		}
+	}
+
+	private void addOverflow(int id, int type, int x, int y, long time) {
+		if (type == MOVE) {
+			for (int i = overflow.size() - 1; i >= 0; i--) {
+				Sample last = overflow.get(i);
+				if (last.id == id) {
+					if (last.type == MOVE) {
+						last.x = x;
+						last.y = y;
+						last.time = time;
+						coalescedCount++;
+						return;
+					}
+					break;
+				}
+			}
+		}
+
+		if (overflow.size() >= MAX_OVERFLOW) {
+			droppedCount++;
+			return;
+		}
+
+		Sample sample = new Sample();
+		sample.id = id;
+		sample.type = type;
+		sample.x = x;
+		sample.y = y;
+		sample.time = time;
+		overflow.add(sample);
+	}
+
+	// Takes all pending samples, oldest first, and returns how many there are.
+	// NOTE: Must only be called from the consumer thread
+	public int drain() {
+		batchCount = 0;
+		int t = tail, h = head;
+		for (; t != h; t++) {
+			int i = t & mask;
+			add(ids[i], types[i], xs[i], ys[i], times[i]);
+		}
+		// Frees the slots for the producer
+		tail = t;
+
+		if (overflowing) {
+			synchronized (overflowLock) {
+				for (Sample sample : overflow) {
+					add(sample.id, sample.type, sample.x, sample.y, sample.time);
+				}
+				overflow.clear();
+				overflowing = false;
+			}
+		}
+		return batchCount;
+	}
+
+	private void add(int id, int type, int x, int y, long time) {
+		if (batchCount == batchIds.length) {
+			growBatch();
+		}
+		batchIds[batchCount] = id;
+		batchTypes[batchCount] = type;
+		batchXs[batchCount] = x;
+		batchYs[batchCount] = y;
+		batchTimes[batchCount] = time;
+		batchCount++;
+	}
+
+	private void allocateBatch(int size) {
+		batchIds = new int[size];
+		batchTypes = new int[size];
+		batchXs = new int[size];
+		batchYs = new int[size];
+		batchTimes = new long[size];
+	}
+
+	private void growBatch() {
+		int[] oldIds = batchIds, oldTypes = batchTypes, oldXs = batchXs, oldYs = batchYs;
+		long[] oldTimes = batchTimes;
+		allocateBatch(oldIds.length * 2);
+		System.arraycopy(oldIds, 0, batchIds, 0, batchCount);
+		System.arraycopy(oldTypes, 0, batchTypes, 0, batchCount);
+		System.arraycopy(oldXs, 0, batchXs, 0, batchCount);
+		System.arraycopy(oldYs, 0, batchYs, 0, batchCount);
+		System.arraycopy(oldTimes, 0, batchTimes, 0, batchCount);
+	}
+
+	// The last drained samples, valid until the next drain()
+	public int[] getIds() { return batchIds; }
+	public int[] getTypes() { return batchTypes; }
+	public int[] getXs() { return batchXs; }
+	public int[] getYs() { return batchYs; }
+	public long[] getTimes() { return batchTimes; }
+
+	// Number of MOVE samples replaced by a newer one while the ring was full
+	public int getCoalescedCount() { return coalescedCount; }
+	// Number of samples lost because the overflow list was full as well
+	public int getDroppedCount() { return droppedCount; }
+}
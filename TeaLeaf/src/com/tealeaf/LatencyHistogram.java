@@ -0,0 +1,66 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.util.Arrays;
+
+// Counts latencies in ms into buckets; bucket i holds values up to bounds[i]
+// and the last bucket holds everything larger than the last bound
+public class LatencyHistogram {
+	private int[] bounds;
+	private int[] counts;
+	private int samples = 0;
+	private long total = 0;
+	private long max = 0;
+
+	public LatencyHistogram(int... bounds) {
+		this.bounds = bounds.clone();
+		this.counts = new int[bounds.length + 1];
+	}
+
+	public void record(long ms) {
+		int i = 0;
+		while (i < bounds.length && ms > bounds[i]) {
+			i++;
+		}
+		counts[i]++;
+		samples++;
+		total += ms;
+		max = Math.max(max, ms);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		samples = 0;
+		total = 0;
+		max = 0;
+	}
+
+	public int[] getBounds() { return bounds.clone(); }
+	public int[] getCounts() { return counts.clone(); }
+	public int getSampleCount() { return samples; }
+	public long getMax() { return max; }
+
+	public long getMean() {
+		return samples > 0 ? total / samples : 0;
+	}
+
+	public String toString() {
+		return "{bounds=" + Arrays.toString(bounds) + ", counts=" + Arrays.toString(counts) +
+				", mean=" + getMean() + ", max=" + max + "}";
+	}
+}
@@ -54,6 +54,7 @@ public class NativeShim {
 	private TeaLeaf context;
 	private ResourceManager resourceManager;
 	private ArrayList<TeaLeafSocket> sockets = new ArrayList<TeaLeafSocket>();
+	private SocketEngine socketEngine = new SocketEngine();
 	private ArrayList<String> overlayEvents = new ArrayList<String>();
 	private ILogger remoteLogger;
 	private ConnectivityManager connectivityManager;
@@ -150,7 +151,18 @@ public class NativeShim {
 		}
 		Bitmap bitmap = null;
 		if(imageUrl != null) {
-			textureLoader.getImage(imageUrl);
+			// The image may be shared with the image cache, which can recycle
+			// it once it's given back, so the dialog gets its own copy
+			Bitmap shared = textureLoader.getImage(imageUrl);
+			if (shared != null) {
+				try {
+					bitmap = shared.copy(shared.getConfig(), false);
+				} catch (OutOfMemoryError e) {
+					logger.log(e);
+				} finally {
+					ImageCache.recycle(shared);
+				}
+			}
 		}
 		final Bitmap image = bitmap;
 		context.runOnUiThread(new Runnable() {
@@ -302,9 +314,18 @@ public class NativeShim {
 		int textSize = textManager.measureText(font, size, text);
 		return textSize;
 	}
+	public int[] measureTexts(String[] fonts, int[] sizes, String[] texts) {
+		return textManager.measureText(fonts, sizes, texts);
+	}
 	public void loadTexture(String url) {
 		textureLoader.loadTexture(url);
 	}
+	public void loadTexture(String url, int priority) {
+		textureLoader.loadTexture(url, priority);
+	}
+	public void prioritizeTexture(String url, int priority) {
+		textureLoader.prioritizeTexture(url, priority);
+	}
 	public int getNextCameraId() {
 		return textureLoader.getNextCameraId();
 	}
@@ -358,13 +379,26 @@ public class NativeShim {
 			}
 		}
 	}
+	public void sendFrame(int id, byte[] data) {
+		if(sockets.size() > id) {
+			TeaLeafSocket socket = sockets.get(id);
+			if (socket != null) {
+				socket.writeFrame(data);
+			} else {
+				logger.log("{socket} WARNING: Send frame failed on broken socket");
+			}
+		}
+	}
 	public int openSocket(String host, int port) {
+		return openSocket(host, port, TeaLeafSocket.FRAMING_LINES);
+	}
+	public int openSocket(String host, int port, int framing) {
 		int id = sockets.size();
-		logger.log("{socket} Connecting to ", host, ":", port, " (id=", id, ")");
+		logger.log("{socket} Connecting to ", host, ":", port, " (id=", id, ", framing=", framing, ")");
 
-		TeaLeafSocket socket = new TeaLeafSocket(host, port, id);
+		TeaLeafSocket socket = new TeaLeafSocket(host, port, id, framing, socketEngine);
 		sockets.add(socket);
-		new Thread(socket).start();
+		socket.connect();
 		return id;
 	}
 	public void closeSocket(int id) {
@@ -644,11 +678,13 @@ public class NativeShim {
 	public static native void reloadTextures();
 	public static native void reloadCanvases();
 	public static native void clearTextures();
-	public static native void onTextureLoaded(String url, int name, int width, int height, int originalWidth, int originalHeight, int numChannels);
+	public static native void onTextureLoaded(String url, int name, int width, int height, int originalWidth, int originalHeight, int numChannels, int scale);
 	public static native void onTextureFailedToLoad(String url);
 
 	//Input stuff
 	public static native void dispatchEvents(String[] event);
+	// Dispatches count events packed by an EventBuffer
+	public static native void dispatchEventBuffer(java.nio.ByteBuffer events, int count);
 	public static native void dispatchInputEvents(int[] ids, int[] types, int[] xs, int[] ys, int count);
 
 	public static native void saveTextures();
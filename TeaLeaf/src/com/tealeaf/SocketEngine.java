@@ -0,0 +1,131 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Runs every TeaLeafSocket on one selector thread with non-blocking
+// channels. Sockets are only touched from that thread; other threads ask
+// for changes (connect, write, close) with schedule(), which wakes it up.
+// Host names are looked up on a separate thread so a slow lookup doesn't
+// stall the other connections.
+public class SocketEngine implements Runnable {
+	// Opened by start(), read by schedule() on other threads
+	private volatile Selector selector;
+	private Thread thread;
+	private ExecutorService resolver;
+	private ConcurrentLinkedQueue<TeaLeafSocket> changes = new ConcurrentLinkedQueue<TeaLeafSocket>();
+
+	private synchronized void start() throws IOException {
+		if (thread != null) {
+			return;
+		}
+		selector = Selector.open();
+		resolver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Socket Resolver");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		thread = new Thread(this, "Socket Engine");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void open(final TeaLeafSocket socket) {
+		try {
+			start();
+		} catch (IOException e) {
+			socket.error(e.toString());
+			return;
+		}
+		resolver.execute(new Runnable() {
+			public void run() {
+				if (socket.resolve()) {
+					schedule(socket);
+				}
+			}
+		});
+	}
+
+	public void schedule(TeaLeafSocket socket) {
+		changes.add(socket);
+		selector.wakeup();
+	}
+
+	public void run() {
+		logger.log("{socket} Engine started");
+		while (true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				logger.log(e);
+				continue;
+			}
+
+			TeaLeafSocket changed;
+			while ((changed = changes.poll()) != null) {
+				try {
+					changed.update(selector);
+				} catch (RuntimeException e) {
+					fail(changed, e);
+				}
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				TeaLeafSocket socket = (TeaLeafSocket)key.attachment();
+				try {
+					if (key.isValid() && key.isConnectable()) {
+						socket.finishConnect();
+					}
+					if (key.isValid() && key.isReadable()) {
+						socket.read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						socket.flush();
+					}
+				} catch (IOException e) {
+					fail(socket, e);
+				} catch (RuntimeException e) {
+					// Only this socket is broken, keep the others running
+					logger.log(e);
+					fail(socket, e);
+				}
+			}
+		}
+	}
+
+	private void fail(TeaLeafSocket socket, Exception e) {
+		socket.error(e.toString());
+		try {
+			socket.update(selector);
+		} catch (RuntimeException closeError) {
+			logger.log(closeError);
+		}
+	}
+}
@@ -17,8 +17,7 @@
 package com.tealeaf;
 
 import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.LinkedList;
 
 import android.opengl.GLES20;
 
@@ -28,10 +27,14 @@ import javax.microedition.khronos.opengles.GL10;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 import android.view.View;
 
 import com.tealeaf.event.ImageLoadedEvent;
+import com.tealeaf.event.InputLatencyEvent;
+import com.tealeaf.event.InputPredictionEvent;
+import com.tealeaf.event.InputSamplesEvent;
 import com.tealeaf.event.ResumeEvent;
 import com.tealeaf.event.RedrawOffscreenBuffersEvent;
 
@@ -40,7 +43,10 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 	private Renderer renderer;
 	public boolean started = false;
 	public boolean sendResumeEvent = false;
-	private ArrayList<TextureData> loadedImages = new ArrayList<TextureData>();
+	private LinkedList<TextureData> loadedImages = new LinkedList<TextureData>();
+	// Per-frame limits on texture uploads, the rest wait for the next frame
+	private int uploadBudgetMs;
+	private int uploadBudgetBytes;
 	protected boolean saveTextures = false;
 	protected Object lastFrame = new Object();
 
@@ -56,6 +62,13 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
         setPreserveEGLContextOnPause(true);
 
 		this.context = context;
+		uploadBudgetMs = context.getOptions().get("textureUploadBudgetMs", 8);
+		uploadBudgetBytes = context.getOptions().get("textureUploadBudgetKB", 4096) * 1024;
+		// Only deliver the latest network status and window focus event each frame
+		EventQueue.setCoalescing(context.getOptions().get("coalesceEvents", false));
+		// Events handed to JS per frame, 0 for no limit
+		EventQueue.setDispatchBudget(context.getOptions().get("eventDispatchMaxEvents", 0),
+				context.getOptions().get("eventDispatchMaxKB", 0) * 1024);
 		renderer = new Renderer(this);
 		this.setOnTouchListener(renderer);
 	}
@@ -172,13 +185,17 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 	}
 
 	//FIXME separate this with pushLaodedImage
-	protected ArrayList<TextureData> getLoadedImages() {
-		ArrayList<TextureData> ret;
+	protected TextureData pollLoadedImage() {
 		synchronized(loadedImages) {
-			ret = new ArrayList<TextureData>(loadedImages);
-			loadedImages.clear();
+			return loadedImages.poll();
+		}
+	}
+
+	// Number of loaded images still waiting to be uploaded
+	public int getLoadedImageBacklog() {
+		synchronized(loadedImages) {
+			return loadedImages.size();
 		}
-		return ret;
 	}
 
 	// Clear the loadedImage list and the texture load queue in textureLoader
@@ -186,6 +203,9 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 		renderer.textureLoader.clearTextureLoadQueue();
 
 		synchronized(loadedImages) {
+			for (TextureData td : loadedImages) {
+				renderer.textureLoader.releaseReservation(td);
+			}
 			loadedImages.clear();
 		}
 
@@ -193,22 +213,43 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 	}
 
 	//FIXME separate this with the above 2 functions
+	// Uploads loaded images until this frame's time or byte budget is used up.
+	// At least one image is uploaded per frame so the backlog always drains.
 	protected void finishLoadingImages() {
-		for (TextureData td : getLoadedImages()) {
+		long start = System.nanoTime();
+		long deadline = start + uploadBudgetMs * 1000000L;
+		int uploadedBytes = 0;
+		int uploaded = 0;
+		TextureData td;
+		while ((td = pollLoadedImage()) != null) {
 			if (td.loaded) {
-				long then = new Date().getTime();
+				int bytes = td.getByteCount();
+				long then = System.nanoTime();
 				renderer.textureLoader.finishLoadingTexture(td);
-				long now = new Date().getTime();
-				logger.log("{gl} Finish loading texture took", now - then, "ms");
+				renderer.textureLoader.releaseReservation(td);
+				long now = System.nanoTime();
+				logger.log("{gl} Finish loading texture took", (now - then) / 1000000, "ms");
 				if (!td.url.startsWith("@TEXT")) {
-					EventQueue.pushEvent((new ImageLoadedEvent(td.url, td.width, td.height, td.originalWidth, td.originalHeight, td.name)));
+					EventQueue.pushEvent((new ImageLoadedEvent(td.url, td.width, td.height, td.originalWidth, td.originalHeight, td.name, td.atlasFrames)));
+				}
+				NativeShim.onTextureLoaded(td.url, td.name, td.width, td.height, td.originalWidth, td.originalHeight, td.numChannels, td.scale);
+				uploadedBytes += bytes;
+				uploaded++;
+
+				if (now >= deadline || uploadedBytes >= uploadBudgetBytes) {
+					break;
 				}
-				//Number of channels (last argument) is always 4 for now (RGBA8888)
-				NativeShim.onTextureLoaded(td.url, td.name, td.width, td.height, td.originalWidth, td.originalHeight, 4);
 			} else {
 				NativeShim.onTextureFailedToLoad(td.url);
 			}
 		}
+
+		if (uploaded > 0) {
+			int backlog = getLoadedImageBacklog();
+			if (backlog > 0) {
+				logger.log("{gl} Uploaded", uploaded, "textures in", (System.nanoTime() - start) / 1000000, "ms,", backlog, "deferred to the next frame");
+			}
+		}
 	}
 
 	public void clearTextures() {
@@ -247,6 +288,11 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 			//FIXME is this really where we should create the service wrapper?
 			// no, but we need to create it arbitrarily early to give it time to spin up before the game starts
 			service = new ServiceWrapper(this.view.context);
+
+			// Also send every touch sample, with its time, to JS each frame
+			touchHistory = this.view.context.getOptions().get("touchHistory", false);
+			// Send predicted pointer positions and input latency to JS
+			touchPrediction = this.view.context.getOptions().get("touchPrediction", false);
 		}
 
 		public void destroy() {
@@ -300,27 +346,42 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 			int type;
 			int eventType = event.getAction();
 
+			long time = event.getEventTime();
+
 			switch (eventType & MotionEvent.ACTION_MASK) {
 				case MotionEvent.ACTION_DOWN:
 				case MotionEvent.ACTION_POINTER_1_DOWN:
-					type = 1;
+					type = InputRing.DOWN;
 					break;
 				case MotionEvent.ACTION_MOVE:
-					type = 2;
+					type = InputRing.MOVE;
 					break;
 				case MotionEvent.ACTION_UP:
 				case MotionEvent.ACTION_POINTER_1_UP:
 				case MotionEvent.ACTION_CANCEL:
-					type = 3;
+					type = InputRing.UP;
 					break;
 				default:
 					type = -1;
 			}
 
-			synchronized(InputEvents.lock) {
-				InputEvents.push(id, type, (int)x, (int)y);
+			// Moves can carry the samples Android batched since the last one
+			if (touchHistory && type == InputRing.MOVE) {
+				for (int h = 0; h < event.getHistorySize(); h++) {
+					long historicalTime = event.getHistoricalEventTime(h);
+					for (int i = 0; i < event.getPointerCount(); i++) {
+						float hx = Math.min(Math.max(0, event.getHistoricalX(i, h)), width);
+						float hy = Math.min(Math.max(0, event.getHistoricalY(i, h)), height);
+						inputEvents.push(event.getPointerId(i), InputRing.MOVE, (int)hx, (int)hy, historicalTime);
+					}
+				}
 			}
 
+			inputEvents.push(id, type, (int)x, (int)y, time);
+
+			// A cancel ends every pointer, not just the one it was reported for,
+			// so nothing is left down in JS or the predictor
+			boolean cancel = (eventType & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_CANCEL;
 			for (int i = 0; i < event.getPointerCount(); i++) {
 				if (i == activePointer) {
 					continue;
@@ -328,10 +389,8 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 				id = event.getPointerId(i);
 				x = Math.min(Math.max(0, event.getX(i)), width);
 				y = Math.min(Math.max(0, event.getY(i)), height);
-				type = 2;
-				synchronized(InputEvents.lock) {
-					InputEvents.push(id, type, (int)x, (int)y);
-				}
+				type = cancel ? InputRing.UP : InputRing.MOVE;
+				inputEvents.push(id, type, (int)x, (int)y, time);
 			}
 			return true;
 		}
@@ -448,36 +507,90 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 			state = READY;
 		}
 
-		static class InputEvents {
-			public static final int MAX_EVENTS = 32;
-			public static int[] ids = new int[MAX_EVENTS];
-			public static int[] types = new int[MAX_EVENTS];
-			public static int[] xs = new int[MAX_EVENTS];
-			public static int[] ys = new int[MAX_EVENTS];
-
-			private static int index = 0;
+		// Touch samples from the UI thread, drained every frame
+		private InputRing inputEvents = new InputRing(256);
+		private int reportedCoalesced = 0, reportedDropped = 0;
+		private boolean touchHistory;
+		private boolean touchPrediction;
+		private TouchPredictor predictor = new TouchPredictor();
+		private LatencyHistogram inputLatency = new LatencyHistogram(4, 8, 16, 33, 50, 100);
+		private long lastLatencyReport = 0;
+		private static final long LATENCY_REPORT_INTERVAL_MS = 5000;
+		// Reused for the packed samples of each frame's InputSamplesEvent
+		private int[] packedSamples = new int[0];
 
-			public static Object lock = new Object();
-			public static void push(int id, int type, int x, int y) {
-				if (index < MAX_EVENTS) {
-					ids[index] = id;
-					types[index] = type;
-					xs[index] = x;
-					ys[index] = y;
-					index++;
+		private void handleInputEvents() {
+			int count = inputEvents.drain();
+			if (count > 0) {
+				NativeShim.dispatchInputEvents(inputEvents.getIds(), inputEvents.getTypes(), inputEvents.getXs(), inputEvents.getYs(), count);
+				if (touchHistory) {
+					pushInputSamples(count);
 				}
 			}
+			if (touchPrediction) {
+				predictInput(count);
+			}
 
-			public static void clear() {
-				index = 0;
+			int coalesced = inputEvents.getCoalescedCount(), dropped = inputEvents.getDroppedCount();
+			if (coalesced != reportedCoalesced || dropped != reportedDropped) {
+				reportedCoalesced = coalesced;
+				reportedDropped = dropped;
+				logger.log("{input} Input buffer full,", coalesced, "moves coalesced and", dropped, "samples dropped so far");
 			}
 		}
-		private void handleInputEvents() {
-			synchronized(InputEvents.lock) {
-				if (InputEvents.index > 0) {
-					NativeShim.dispatchInputEvents(InputEvents.ids, InputEvents.types, InputEvents.xs, InputEvents.ys, InputEvents.index);
-					InputEvents.clear();
-				}
+
+		// The native input path has no timestamps, so the full-rate samples
+		// go to JS as one event that is dispatched later in the same frame
+		private void pushInputSamples(int count) {
+			if (packedSamples.length < count * InputSamplesEvent.STRIDE) {
+				packedSamples = new int[count * InputSamplesEvent.STRIDE * 2];
+			}
+			int[] ids = inputEvents.getIds(), types = inputEvents.getTypes();
+			int[] xs = inputEvents.getXs(), ys = inputEvents.getYs();
+			long[] times = inputEvents.getTimes();
+			// Uptime doesn't fit in an int, so times are sent relative to the
+			// earliest sample of the batch
+			long baseTime = times[0];
+			for (int i = 1; i < count; i++) {
+				baseTime = Math.min(baseTime, times[i]);
+			}
+			for (int i = 0, j = 0; i < count; i++) {
+				packedSamples[j++] = ids[i];
+				packedSamples[j++] = types[i];
+				packedSamples[j++] = xs[i];
+				packedSamples[j++] = ys[i];
+				packedSamples[j++] = (int)(times[i] - baseTime);
+			}
+			// Packed right away, so the array can be reused next frame
+			EventQueue.pushEvent(new InputSamplesEvent(packedSamples, count, baseTime));
+		}
+
+		// Measures how long samples waited for this frame, and tells JS where
+		// the pointers that are down should be when the frame is presented
+		private void predictInput(int count) {
+			long now = SystemClock.uptimeMillis();
+			int[] ids = inputEvents.getIds(), types = inputEvents.getTypes();
+			int[] xs = inputEvents.getXs(), ys = inputEvents.getYs();
+			long[] times = inputEvents.getTimes();
+			for (int i = 0; i < count; i++) {
+				predictor.add(ids[i], types[i], xs[i], ys[i], times[i]);
+				inputLatency.record(now - times[i]);
+			}
+
+			predictor.onFrame(now);
+			if (predictor.getActiveCount() > 0) {
+				long presentationTime = predictor.getPresentationTime(now);
+				int pointers = predictor.predict(presentationTime, width, height);
+				// Packed right away, so the predictor can reuse the array
+				EventQueue.pushEvent(new InputPredictionEvent(predictor.getPredictions(), pointers, presentationTime));
+			}
+
+			if (now - lastLatencyReport >= LATENCY_REPORT_INTERVAL_MS && inputLatency.getSampleCount() > 0) {
+				lastLatencyReport = now;
+				logger.log("{input} Input to dispatch latency", inputLatency);
+				EventQueue.pushEvent(new InputLatencyEvent(inputLatency.getBounds(), inputLatency.getCounts(),
+						inputLatency.getMean(), inputLatency.getMax()));
+				inputLatency.reset();
 			}
 		}
 
@@ -560,11 +673,22 @@ public class TeaLeafGLSurfaceView extends com.tealeaf.GLSurfaceView {
 						view.context);
 			}
 
+			CompressedTexture.detectSupportedFormats();
+
+			int[] maxTextureSize = new int[1];
+			GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+			textureLoader.setMaxTextureSize(maxTextureSize[0]);
+
 			if (shouldReloadTextures) {
 				NativeShim.initGL(0);
 
 				// Clear out anything that is currently being loaded
 				view.clearLoadedImageQueue();
+				textureLoader.clearStagingPool();
+
+				logger.log("{texture} Reloading textures, image cache", textureLoader.getImageCache(),
+						"text cache", textureLoader.getTextManager().getTextCache(),
+						"decode admission", textureLoader.getDecodeAdmission());
 
 				NativeShim.reloadTextures();
 			}
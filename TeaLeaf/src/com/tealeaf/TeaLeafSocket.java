@@ -16,86 +16,78 @@
  */
 package com.tealeaf;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
-import java.util.Queue;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.tealeaf.event.SocketCloseEvent;
 import com.tealeaf.event.SocketErrorEvent;
 import com.tealeaf.event.SocketOpenEvent;
 import com.tealeaf.event.SocketReadEvent;
 
+// A connection run by a SocketEngine, either newline delimited text or
+// binary frames, each a 4 byte big endian length followed by that many
+// bytes. connect(), write(), writeFrame() and close() may be called from
+// any thread, everything else only runs on the engine's thread.
 //TODO get rid of the reference in NativeShim when one of these goes out of scope
-public class TeaLeafSocket implements Runnable{
+public class TeaLeafSocket {
+	public static final int FRAMING_LINES = 0;
+	public static final int FRAMING_LENGTH_PREFIXED = 1;
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	private static final Charset charset = Charset.defaultCharset();
+
 	private String address;
 	private int port;
-	private Socket socket;
-	private BufferedReader in;
-	private OutputStreamWriter out;
 	private int id;
+	private int framing;
+	private SocketEngine engine;
+	// Set once the address is looked up
+	private volatile InetSocketAddress remote;
+	private SocketChannel channel;
+	private SelectionKey key;
 	private boolean connected = false;
+	private volatile boolean closing = false;
+	private AtomicBoolean scheduled = new AtomicBoolean(false);
 
-	private Thread writeThread = new Thread(new Runnable() {
-		public void run() {
-			while(connected) {
-				try {
-					String[] results = null;
-					 while(writeQueue.size() > 0) {
-						results = new String[writeQueue.size()];
-						writeQueue.toArray(results);
-						writeQueue.clear();
-						for(String result : results) {
-							out.write(result);
-							out.flush();
-						}
-					}
-					synchronized(writeMonitor) {
-						writeMonitor.wait();
-					}
-				} catch(Exception e) {
-					logger.log(e);
-					return;
-				}
-			}
-			logger.log("{socket} Write thread terminating");
-		}
-	});
-	private Object writeMonitor = new Object();
-	private Queue<String> writeQueue = new java.util.concurrent.ConcurrentLinkedQueue<String>();
+	// Bytes of a line not yet terminated or a frame not yet complete
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	// Whether a \n right after the last line's \r is part of its terminator
+	private boolean skipLF = false;
+	private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
 
-	public TeaLeafSocket(String address, int port, int id) {
+	public TeaLeafSocket(String address, int port, int id, int framing, SocketEngine engine) {
 		this.address = address;
 		this.port = port;
 		this.id = id;
+		this.framing = framing;
+		this.engine = engine;
 	}
-	
+
 	public void connect() {
-		boolean error = false;
-		try {
-			logger.log("{socket} Created for", address, ":", port);
-			socket = new Socket(address, port);
-			socket.setSoTimeout(3000);
-		} catch (Exception e) {
-			error(e.toString());
-			error = true;
-		}
-		if (socket != null) {
-			try {
-				in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-				out = new OutputStreamWriter(socket.getOutputStream());
-			} catch (IOException e) {
-				error(e.toString());
-				error = true;
-			}
-		}
-		if (!error) {
-			this.connected = true;
-			EventQueue.pushEvent(new SocketOpenEvent(this.id));
+		logger.log("{socket} Created for", address, ":", port);
+		engine.open(this);
+	}
+
+	// Looks up the address, run on the engine's resolver thread
+	boolean resolve() {
+		InetSocketAddress resolved = new InetSocketAddress(address, port);
+		if (resolved.isUnresolved()) {
+			error("Unable to resolve " + address);
+			return false;
 		}
+		remote = resolved;
+		return true;
 	}
-	
+
 	public int getID() {
 		return id;
 	}
@@ -105,43 +97,223 @@ public class TeaLeafSocket implements Runnable{
 		close();
 	}
 
+	// On a binary socket the encoded text is sent as one frame
 	public void write(String data) {
-		synchronized(writeMonitor) {
-			writeQueue.add(data);
-			writeMonitor.notifyAll();
+		if (closing) {
+			return;
 		}
+		ByteBuffer encoded = charset.encode(data);
+		if (framing == FRAMING_LENGTH_PREFIXED) {
+			ByteBuffer frame = ByteBuffer.allocate(4 + encoded.remaining());
+			frame.putInt(encoded.remaining());
+			frame.put(encoded);
+			frame.flip();
+			encoded = frame;
+		}
+		writeQueue.add(encoded);
+		schedule();
 	}
 
-	public synchronized void read() {
-		if (in == null) { return; }
-		String data = null;
-		try {
-			data = in.readLine();
-		} catch (IOException e) {
-			//die
+	public void writeFrame(byte[] data) {
+		if (closing) {
+			return;
 		}
-		if (data != null) {
-			String line = data + "\r\n";
-			EventQueue.pushEvent(new SocketReadEvent(this.id, line));
+		if (framing != FRAMING_LENGTH_PREFIXED) {
+			logger.log("{socket} WARNING: Frame sent on a text socket (id=", id, ")");
+			return;
 		}
+		ByteBuffer frame = ByteBuffer.allocate(4 + data.length);
+		frame.putInt(data.length);
+		frame.put(data);
+		frame.flip();
+		writeQueue.add(frame);
+		schedule();
 	}
-	
+
 	public void close() {
-		connected = false;
+		closing = true;
+		schedule();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			engine.schedule(this);
+		}
+	}
+
+	// Applies the changes asked for by other threads
+	void update(Selector selector) {
+		scheduled.set(false);
+		if (closing) {
+			closeChannel();
+			return;
+		}
+
 		try {
-			if (socket != null) {
-				socket.close();
+			if (channel == null) {
+				// Written to before the lookup finished, it schedules us again
+				if (remote == null) {
+					return;
+				}
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+				if (channel.connect(remote)) {
+					onConnected();
+				}
+			} else if (connected) {
+				updateInterest();
 			}
 		} catch (IOException e) {
+			error(e.toString());
+			closeChannel();
+		}
+	}
+
+	void finishConnect() throws IOException {
+		if (channel.finishConnect()) {
+			onConnected();
+		}
+	}
+
+	private void onConnected() {
+		connected = true;
+		EventQueue.pushEvent(new SocketOpenEvent(this.id));
+		updateInterest();
+	}
+
+	private void updateInterest() {
+		boolean pending = writeBuffer.position() > 0 || !writeQueue.isEmpty();
+		key.interestOps(SelectionKey.OP_READ | (pending ? SelectionKey.OP_WRITE : 0));
+	}
+
+	// Reads everything available, the complete lines are sent in one event
+	// and each complete frame in its own
+	void read() throws IOException {
+		StringBuilder lines = null;
+		int count;
+		while ((count = channel.read(readBuffer)) > 0) {
+			readBuffer.flip();
+			if (framing == FRAMING_LENGTH_PREFIXED) {
+				readFrames();
+			} else {
+				lines = readLines(lines);
+			}
+			readBuffer.compact();
+
+			// A line or frame longer than the buffer, make room for the rest of it
+			if (!readBuffer.hasRemaining()) {
+				int capacity = Math.min(readBuffer.capacity() * 2, 4 + MAX_FRAME_SIZE);
+				if (capacity == readBuffer.capacity()) {
+					throw new IOException("Line longer than " + MAX_FRAME_SIZE + " bytes");
+				}
+				ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+		}
+
+		// The last line doesn't need a terminator when the connection ends
+		if (count < 0 && framing == FRAMING_LINES && readBuffer.position() > 0) {
+			if (lines == null) {
+				lines = new StringBuilder();
+			}
+			readBuffer.flip();
+			lines.append(charset.decode(readBuffer)).append("\r\n");
+			readBuffer.clear();
+		}
+		if (lines != null) {
+			EventQueue.pushEvent(new SocketReadEvent(this.id, lines.toString()));
+		}
+		if (count < 0) {
+			logger.log("{socket} Closed by remote host (id=", id, ")");
+			EventQueue.pushEvent(new SocketCloseEvent(this.id));
+			closing = true;
+			closeChannel();
+		}
+	}
+
+	// Leaves the buffer's position at the first byte not yet in a line
+	private StringBuilder readLines(StringBuilder lines) {
+		int start = 0, end = readBuffer.limit();
+		for (int i = 0; i < end; i++) {
+			byte b = readBuffer.get(i);
+			if (skipLF) {
+				skipLF = false;
+				if (b == '\n') {
+					start = i + 1;
+					continue;
+				}
+			}
+			if (b == '\n' || b == '\r') {
+				if (lines == null) {
+					lines = new StringBuilder();
+				}
+				readBuffer.limit(i).position(start);
+				lines.append(charset.decode(readBuffer)).append("\r\n");
+				readBuffer.limit(end);
+				skipLF = b == '\r';
+				start = i + 1;
+			}
 		}
+		readBuffer.position(start);
+		return lines;
 	}
 
-	public void run() {
-		connect();
-		writeThread.start();
-		while (connected) {
-			read();
+	// Leaves the buffer's position at the first byte not yet in a frame
+	private void readFrames() throws IOException {
+		while (readBuffer.remaining() >= 4) {
+			int length = readBuffer.getInt(readBuffer.position());
+			if (length < 0 || length > MAX_FRAME_SIZE) {
+				throw new IOException("Invalid frame length " + length);
+			}
+			if (readBuffer.remaining() < 4 + length) {
+				break;
+			}
+			readBuffer.getInt();
+			byte[] frame = new byte[length];
+			readBuffer.get(frame);
+			EventQueue.pushSocketFrame(this.id, frame);
+		}
+	}
+
+	// Writes queued data until it's all sent or the socket can't take more
+	void flush() throws IOException {
+		while (true) {
+			ByteBuffer next;
+			while (writeBuffer.hasRemaining() && (next = writeQueue.peek()) != null) {
+				int limit = next.limit();
+				next.limit(next.position() + Math.min(next.remaining(), writeBuffer.remaining()));
+				writeBuffer.put(next);
+				next.limit(limit);
+				if (!next.hasRemaining()) {
+					writeQueue.poll();
+				}
+			}
+
+			writeBuffer.flip();
+			channel.write(writeBuffer);
+			boolean sent = !writeBuffer.hasRemaining();
+			writeBuffer.compact();
+			if (!sent || writeQueue.isEmpty()) {
+				break;
+			}
 		}
+		updateInterest();
 	}
 
+	private void closeChannel() {
+		connected = false;
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+		}
+		writeQueue.clear();
+	}
 }
@@ -18,26 +18,49 @@ package com.tealeaf;
 
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.tealeaf.event.LogEvent;
 
 import android.graphics.Canvas;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.text.Layout;
+import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.graphics.Paint;
 import android.graphics.Typeface;
+import android.support.v4.util.LruCache;
 
 
 public class TextManager {
 	private TeaLeaf tealeaf;
+	// NOTE: customFonts is only written in the constructor, typeFaces and
+	// unsupportedFonts are shared by the texture loader, measuring callers and
+	// the font preloader thread
 	private HashMap<String, String> customFonts = new HashMap<String, String>();
-	private ArrayList<String> unsupportedFonts = new ArrayList<String>();
-	private HashMap<String, Typeface> typeFaces = new HashMap<String, Typeface>();
+	private Set<String> unsupportedFonts = Collections.synchronizedSet(new HashSet<String>());
+	private ConcurrentHashMap<String, Typeface> typeFaces = new ConcurrentHashMap<String, Typeface>();
+	// Rendered @TEXT bitmaps by their hash, so repeated labels are only drawn once
+	private ImageCache textCache;
+	// Font sizes that fit text in a max width, by font, size, max width and text
+	private LruCache<String, Integer> fittedSizes = new LruCache<String, Integer>(512);
+	// Paints used for measuring by font key, only the size changes between calls
+	private HashMap<String, TextPaint> measurePaints = new HashMap<String, TextPaint>();
 	public TextManager(TeaLeaf tealeaf) {
 		this.tealeaf = tealeaf;
 
+		// Rendered text cache size in KB, defaults to a thirty-second of the heap
+		int cacheKB = (int)(Runtime.getRuntime().maxMemory() / 1024 / 32);
+		cacheKB = tealeaf.getOptions().get("textCacheSizeKB", cacheKB);
+		this.textCache = new ImageCache(cacheKB * 1024);
+
 		try {
 			String[] files = tealeaf.getAssets().list("resources/resources/fonts");
 			int n = files.length;
@@ -48,6 +71,47 @@ public class TextManager {
 		} catch (IOException e) {
 			logger.log(e.toString());
 		}
+
+		preloadFonts();
+	}
+
+	// Creates the typefaces of all bundled fonts in the background so that
+	// their first use doesn't pay for loading them
+	private void preloadFonts() {
+		if (customFonts.isEmpty()) {
+			return;
+		}
+
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				long then = System.currentTimeMillis();
+				int count = 0;
+				for (Map.Entry<String, String> font : customFonts.entrySet()) {
+					String fullFontKey = font.getKey();
+					if (!fullFontKey.endsWith(".ttf")) {
+						continue;
+					}
+					String fontKey = fullFontKey.substring(0, fullFontKey.length() - 4);
+					if (typeFaces.containsKey(fontKey)) {
+						continue;
+					}
+					try {
+						typeFaces.putIfAbsent(fontKey, createCustomTypeface(font.getValue()));
+						count++;
+					} catch (Exception e) {
+						logger.log(e);
+					}
+				}
+				logger.log("{text} Preloaded", count, "fonts in", System.currentTimeMillis() - then, "ms");
+			}
+		});
+		thread.setName("Font Preloader");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	private Typeface createCustomTypeface(String file) {
+		return Typeface.createFromAsset(tealeaf.getAssets(), "resources/resources/fonts/" + file);
 	}
 
 	public Bitmap getText(String fontName, int fontSize, int textStyle, String text,  int r, int g, int b, int a, int maxWidth, float strokeWidth) {
@@ -56,7 +120,27 @@ public class TextManager {
 
 	final int MAX_TEXT_PIECES = 10;
 
+	public ImageCache getTextCache() {
+		return textCache;
+	}
+
+	// Returns the bitmap for the @TEXT hash, drawing it only if it isn't cached.
+	// It may be shared through the text cache, so give it back with
+	// ImageCache.recycle(), never Bitmap.recycle()
 	public Bitmap getText(String hash) {
+		Bitmap bmp = textCache.get(hash, null);
+		if (bmp != null) {
+			return bmp;
+		}
+
+		bmp = renderText(hash);
+		if (bmp != null) {
+			textCache.put(hash, bmp, null);
+		}
+		return bmp;
+	}
+
+	private Bitmap renderText(String hash) {
 		String[] parts = unhash(hash, MAX_TEXT_PIECES);
 
 		if (parts.length < MAX_TEXT_PIECES) {
@@ -84,14 +168,63 @@ public class TextManager {
 	}
 
 	public int measureText(String font, int size, String text) {
-		TextPaint textPaint = getTextPaint(font, size, 0, text, 0, 0, 0, 0, 0);
-		return (int)textPaint.measureText(text);
+		synchronized (measurePaints) {
+			return (int)getMeasurePaint(font, size).measureText(text);
+		}
+	}
+
+	// Measures many strings at once. If fewer fonts or sizes than texts are
+	// given, the last one is used for the remaining texts.
+	public int[] measureText(String[] fonts, int[] sizes, String[] texts) {
+		if (texts == null) {
+			return new int[0];
+		}
+		int[] widths = new int[texts.length];
+		if (texts.length > 0 && (fonts == null || fonts.length == 0 || sizes == null || sizes.length == 0)) {
+			logger.log("{text} WARNING: Measuring", texts.length, "texts without a font or size");
+			return widths;
+		}
+		synchronized (measurePaints) {
+			for (int i = 0; i < texts.length; i++) {
+				String font = fonts[Math.min(i, fonts.length - 1)];
+				int size = sizes[Math.min(i, sizes.length - 1)];
+				widths[i] = (int)getMeasurePaint(font, size).measureText(texts[i]);
+			}
+		}
+		return widths;
+	}
+
+	private TextPaint getMeasurePaint(String font, int size) {
+		TextPaint textPaint = measurePaints.get(font);
+		if (textPaint == null) {
+			textPaint = getTextPaint(font, size, 0, null, 0, 0, 0, 0, 0);
+			measurePaints.put(font, textPaint);
+		} else {
+			textPaint.setTextSize(size);
+		}
+		return textPaint;
 	}
 
 	private TextPaint getTextPaint(String fontKey, int fontSize, int textStyle, String text, int r, int g, int b, int a, float strokeWidth) {
 		TextPaint textPaint = new TextPaint();
 		textPaint.setAntiAlias(true);
 		textPaint.setARGB(a, r, g, b);
+		textPaint.setTypeface(getTypeface(fontKey));
+		textPaint.setTextSize(fontSize);
+
+        //default as fill
+        Paint.Style style = Paint.Style.FILL;
+        if (textStyle == 1) {
+            style = Paint.Style.STROKE;
+            textPaint.setStrokeWidth(strokeWidth);
+        }
+        textPaint.setStyle(style);
+		return textPaint;
+	}
+
+	// Safe to call from any thread, a typeface that isn't loaded yet is created
+	// by the caller rather than waiting on another thread that may be loading it
+	private Typeface getTypeface(String fontKey) {
 		Typeface tf = null;
 
 		boolean isBold = false;
@@ -106,10 +239,8 @@ public class TextManager {
 			fontKey = fontKey.substring(7);
 		}
 
-		if(typeFaces.containsKey(fontKey)) {
-			// cached
-			tf = typeFaces.get(fontKey);
-		} else {
+		tf = typeFaces.get(fontKey);
+		if (tf == null) {
 			if (fontKey.startsWith("bold ")) {
 				isBold = true;
 				fontName = fontName.substring(5);
@@ -118,34 +249,25 @@ public class TextManager {
 			String fullFontKey = fontKey.toLowerCase() + ".ttf";
 			if (customFonts.containsKey(fullFontKey)) {
 				// match either the exact font string with weight, e.g. "bold helvetica"
-				tf = Typeface.createFromAsset(tealeaf.getAssets(), "resources/resources/fonts/" + customFonts.get(fullFontKey));
-				typeFaces.put(fontKey, tf);
+				tf = createCustomTypeface(customFonts.get(fullFontKey));
 			} else {
 				// couldn't match the font, so use the closest system font?
-				if (!unsupportedFonts.contains(fontKey)) {
+				if (unsupportedFonts.add(fontKey)) {
 					String warning = "font " + fontKey +" is not supported.  Did you forget to include it?";
 					EventQueue.pushEvent(new LogEvent(warning));
-					unsupportedFonts.add(fontKey);
 					// TODO try to read it from the internet?
 				}
 
 				fontName = fontName.replace(" ", "-");
 				tf = Typeface.create(fontName, isBold ? Typeface.BOLD : Typeface.NORMAL);
-				typeFaces.put(fontKey, tf);
 			}
-		}
 
-		textPaint.setTypeface(tf);
-		textPaint.setTextSize(fontSize);
-
-        //default as fill
-        Paint.Style style = Paint.Style.FILL;
-        if (textStyle == 1) {
-            style = Paint.Style.STROKE;
-            textPaint.setStrokeWidth(strokeWidth);
-        }
-        textPaint.setStyle(style);
-		return textPaint;
+			Typeface existing = typeFaces.putIfAbsent(fontKey, tf);
+			if (existing != null) {
+				tf = existing;
+			}
+		}
+		return tf;
 	}
 
 	private Bitmap loadNewText(String fontName, int fontSize, int textStyle, String text, int r, int g, int b, int a, int maxWidth, float strokeWidth) {
@@ -160,14 +282,12 @@ public class TextManager {
 		// Measure initial text width
 		float width = textPaint.measureText(text);
 
-		// If we are constraining the max width,
-		if (maxWidth > 0) {
-			// While max width is exceeded and we can reduce font size,
-			while (width > maxWidth && fontSize > 0) {
-				// Reduce font size and re-measure
-				textPaint.setTextSize(--fontSize);
-				width = textPaint.measureText(text);
-			}
+		// If we are constraining the max width and it is exceeded,
+		if (maxWidth > 0 && width > maxWidth && fontSize > 0) {
+			// Shrink to the largest font size that fits and re-measure
+			fontSize = fitFontSize(textPaint, fontName, fontSize, text, maxWidth, width);
+			textPaint.setTextSize(fontSize);
+			width = textPaint.measureText(text);
 		}
 
 		int strokeAdd = (int)Math.ceil((strokeWidth * 2));
@@ -193,6 +313,195 @@ public class TextManager {
 		return bitmap;
 	}
 
+	// Finds the largest font size below fontSize at which the text is no wider
+	// than maxWidth, or 0 if there is none. Text width grows with the font size,
+	// so the size is estimated from the width ratio and then bisected.
+	private int fitFontSize(TextPaint textPaint, String fontName, int fontSize, String text, int maxWidth, float width) {
+		String key = fontName + "|" + fontSize + "|" + maxWidth + "|" + text;
+		Integer cached = fittedSizes.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		int low = 0, high = fontSize - 1;
+		int guess = Math.max(low, Math.min(high, (int)(fontSize * maxWidth / width)));
+		if (fits(textPaint, guess, text, maxWidth)) {
+			low = guess;
+		} else {
+			high = guess - 1;
+		}
+		while (low < high) {
+			int mid = (low + high + 1) / 2;
+			if (fits(textPaint, mid, text, maxWidth)) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		fittedSizes.put(key, low);
+		return low;
+	}
+
+	private boolean fits(TextPaint textPaint, int fontSize, String text, int maxWidth) {
+		textPaint.setTextSize(fontSize);
+		return textPaint.measureText(text) <= maxWidth;
+	}
+
+	final String GLYPHS_PREFIX = "@GLYPHS";
+	final int MAX_GLYPH_PIECES = 5;
+
+	// Rasterizes each distinct character of an "@GLYPHSfont|size|style|strokeWidth|characters"
+	// request once onto a shared page, in white so it can be tinted when drawn.
+	// Each glyph's {x, y, width, height, advance, baseline} on the page is put
+	// in frames; every glyph box is a full line high with the baseline at the
+	// given offset from its top, so text can be composed without new uploads.
+	public Bitmap getGlyphs(String hash, int pageSize, Map<String, int[]> frames) {
+		String[] parts = hash.substring(GLYPHS_PREFIX.length()).split("\\|", MAX_GLYPH_PIECES);
+		if (parts.length < MAX_GLYPH_PIECES) {
+			logger.log("{text} ERROR: Only", parts.length, "parts to glyphs tag");
+			return null;
+		}
+
+		String fontName = parts[0];
+		int fontSize, textStyle;
+		float strokeWidth;
+		try {
+			fontSize = Integer.parseInt(parts[1]);
+			textStyle = Integer.parseInt(parts[2]);
+			strokeWidth = textStyle == 1 ? Float.parseFloat(parts[3]) : 0;
+		} catch (NumberFormatException e) {
+			logger.log(e);
+			return null;
+		}
+
+		LinkedHashSet<String> glyphs = new LinkedHashSet<String>();
+		String characters = parts[4];
+		for (int i = 0; i < characters.length(); ) {
+			int next = characters.offsetByCodePoints(i, 1);
+			glyphs.add(characters.substring(i, next));
+			i = next;
+		}
+		if (glyphs.isEmpty()) {
+			return null;
+		}
+
+		TextPaint textPaint = getTextPaint(fontName, fontSize, textStyle, characters, 255, 255, 255, 255, strokeWidth);
+		int strokeAdd = (int)Math.ceil(strokeWidth * 2);
+		float ascent = textPaint.ascent();
+		int height = Math.max((int)Math.ceil(textPaint.descent() - ascent) + strokeAdd, 1);
+		int baseline = (int)Math.ceil(-ascent) + strokeAdd / 2;
+
+		TextureAtlas atlas = new TextureAtlas(pageSize, pageSize);
+		HashMap<String, Rect> rects = new HashMap<String, Rect>();
+		for (String glyph : glyphs) {
+			float advance = textPaint.measureText(glyph);
+			int width = Math.max((int)Math.ceil(advance), 1) + strokeAdd;
+			Rect rect = atlas.insert(width, height);
+			if (rect == null) {
+				logger.log("{text} WARNING: Glyph page is full, dropping", glyph);
+				continue;
+			}
+			rects.put(glyph, rect);
+			frames.put(glyph, new int[] {rect.left, rect.top, width, height, Math.round(advance), baseline});
+		}
+
+		Bitmap bitmap = Bitmap.createBitmap(pageSize, TextureLoader.getNextHighestPO2(Math.max(atlas.getUsedHeight(), 1)),
+				Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		for (Map.Entry<String, Rect> entry : rects.entrySet()) {
+			Rect rect = entry.getValue();
+			canvas.drawText(entry.getKey(), rect.left + strokeAdd / 2, rect.top + baseline, textPaint);
+		}
+		return bitmap;
+	}
+
+	final String PARAGRAPH_PREFIX = "@PARAGRAPH";
+	final int MAX_PARAGRAPH_PIECES = 13;
+
+	// Draws a whole paragraph from an "@PARAGRAPHfont|size|r|g|b|a|maxWidth|textStyle|
+	// strokeWidth|lineHeight|align|maxLines|text" request into one bitmap. Lines
+	// are wrapped at word boundaries to maxWidth (0 for no wrapping), spaced
+	// lineHeight apart (0 for the font's spacing) and aligned left (0), center
+	// (1) or right (2); lines past maxLines (0 for no limit) are cut off. Each
+	// line's {left, top, width, height, baseline, start, end} is put in lines,
+	// keyed by its index, where start and end are character offsets in text.
+	public Bitmap getParagraph(String hash, Map<String, int[]> lines) {
+		String[] parts = hash.substring(PARAGRAPH_PREFIX.length()).split("\\|", MAX_PARAGRAPH_PIECES);
+		if (parts.length < MAX_PARAGRAPH_PIECES) {
+			logger.log("{text} ERROR: Only", parts.length, "parts to paragraph tag");
+			return null;
+		}
+
+		String fontName = parts[0];
+		int fontSize, r, g, b, a, maxWidth, textStyle, lineHeight, align, maxLines;
+		float strokeWidth;
+		try {
+			fontSize = Integer.parseInt(parts[1]);
+			r = Integer.parseInt(parts[2]);
+			g = Integer.parseInt(parts[3]);
+			b = Integer.parseInt(parts[4]);
+			a = Integer.parseInt(parts[5]);
+			maxWidth = Integer.parseInt(parts[6]);
+			textStyle = Integer.parseInt(parts[7]);
+			strokeWidth = textStyle == 1 ? Float.parseFloat(parts[8]) : 0;
+			lineHeight = Integer.parseInt(parts[9]);
+			align = Integer.parseInt(parts[10]);
+			maxLines = Integer.parseInt(parts[11]);
+		} catch (NumberFormatException e) {
+			logger.log(e);
+			return null;
+		}
+		String text = parts[12];
+
+		TextPaint textPaint = getTextPaint(fontName, fontSize, textStyle, text, r, g, b, a, strokeWidth);
+
+		// Lay out no wider than the longest line so the bitmap stays compact,
+		// this wraps the same as laying out at maxWidth
+		int width = Math.max((int)Math.ceil(Layout.getDesiredWidth(text, textPaint)), 1);
+		if (maxWidth > 0) {
+			width = Math.min(width, maxWidth);
+		}
+
+		Layout.Alignment alignment = Layout.Alignment.ALIGN_NORMAL;
+		if (align == 1) {
+			alignment = Layout.Alignment.ALIGN_CENTER;
+		} else if (align == 2) {
+			alignment = Layout.Alignment.ALIGN_OPPOSITE;
+		}
+
+		float spacing = 0;
+		if (lineHeight > 0) {
+			Paint.FontMetricsInt metrics = textPaint.getFontMetricsInt();
+			spacing = lineHeight - (metrics.descent - metrics.ascent);
+		}
+		StaticLayout layout = new StaticLayout(text, textPaint, width, alignment, 1.f, spacing, false);
+
+		int lineCount = layout.getLineCount();
+		if (maxLines > 0 && lineCount > maxLines) {
+			lineCount = maxLines;
+		}
+
+		int strokeAdd = (int)Math.ceil(strokeWidth * 2);
+		int pad = strokeAdd / 2;
+		int height = Math.max(layout.getLineBottom(lineCount - 1), 1) + strokeAdd;
+		Bitmap bitmap = Bitmap.createBitmap(width + strokeAdd, height, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		canvas.clipRect(0, 0, width + strokeAdd, height);
+		canvas.translate(pad, pad);
+		layout.draw(canvas);
+
+		for (int i = 0; i < lineCount; i++) {
+			int top = layout.getLineTop(i);
+			lines.put(String.valueOf(i), new int[] {
+				(int)Math.floor(layout.getLineLeft(i)) + pad, top + pad,
+				(int)Math.ceil(layout.getLineWidth(i)) + strokeAdd, layout.getLineBottom(i) - top + strokeAdd,
+				layout.getLineBaseline(i) - top + pad, layout.getLineStart(i), layout.getLineEnd(i)
+			});
+		}
+		return bitmap;
+	}
+
 	private String[] unhash(String hash, int maxParts) {
 		return hash.replace("@TEXT", "").split("\\|", maxParts);
 	}
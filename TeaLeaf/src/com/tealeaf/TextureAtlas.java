@@ -0,0 +1,76 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.util.ArrayList;
+
+import android.graphics.Rect;
+
+// Shelf packer used to lay out small images on a shared texture page.
+// Images are placed left to right on horizontal shelves, and a new shelf is
+// opened below the last one when an image doesn't fit on any existing shelf.
+public class TextureAtlas {
+	// Gap between images so linear filtering doesn't bleed between them
+	private static final int PADDING = 1;
+
+	private int width, height;
+	private ArrayList<int[]> shelves = new ArrayList<int[]>(); // {y, height, used width}
+	private int usedHeight = 0;
+
+	public TextureAtlas(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	// Returns where the image goes on the page, or null if the page is full
+	public Rect insert(int w, int h) {
+		int paddedWidth = w + PADDING, paddedHeight = h + PADDING;
+		if (paddedWidth > width || paddedHeight > height) {
+			return null;
+		}
+
+		// Use the shortest shelf that is tall enough and has room left
+		int[] best = null;
+		for (int[] shelf : shelves) {
+			if (shelf[1] >= paddedHeight && shelf[2] + paddedWidth <= width && (best == null || shelf[1] < best[1])) {
+				best = shelf;
+			}
+		}
+
+		if (best == null) {
+			if (usedHeight + paddedHeight > height) {
+				return null;
+			}
+			best = new int[] {usedHeight, paddedHeight, 0};
+			shelves.add(best);
+			usedHeight += paddedHeight;
+		}
+
+		Rect rect = new Rect(best[2], best[0], best[2] + w, best[0] + h);
+		best[2] += paddedWidth;
+		return rect;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	// Height of the page actually covered by shelves
+	public int getUsedHeight() {
+		return usedHeight;
+	}
+}
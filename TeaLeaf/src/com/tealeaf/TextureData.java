@@ -16,6 +16,9 @@
  */
 package com.tealeaf;
 
+import java.nio.ByteBuffer;
+import java.util.Map;
+
 import android.graphics.Bitmap;
 
 public class TextureData {
@@ -48,7 +51,7 @@ public class TextureData {
 
 	public void clear() {
 		if (this.bitmap != null) {
-			this.bitmap.recycle();
+			ImageCache.recycle(this.bitmap);
 			this.bitmap = null;
 		}
 	}
@@ -61,5 +64,33 @@ public class TextureData {
 	public int originalHeight;
 	public String url;
 	public boolean isText = false;
+	// The bitmap came from the staging pool and is returned to it after upload
+	public boolean pooled = false;
 	public Bitmap bitmap;
+	// Set instead of bitmap for pre-compressed textures
+	public ByteBuffer compressedData;
+	public int compressedFormat;
+	// Set instead of bitmap for 16 bit RGBA textures, in the GL type given
+	public ByteBuffer pixelData;
+	public int pixelType;
+	// Size of the image in pixelData, smaller than width and height when shrunk
+	public int pixelWidth, pixelHeight;
+	// For @ATLAS pages, each packed image's {x, y, width, height} on the page
+	public Map<String, int[]> atlasFrames;
+	public int numChannels = 4;
+	// Factor the image was shrunk by when decoding, the GL texture is width / scale wide
+	public int scale = 1;
+	// Bytes reserved with the loader's decode admission, released after upload
+	public int reservedBytes = 0;
+
+	// Number of bytes that will be uploaded to GL
+	public int getByteCount() {
+		if (compressedData != null) {
+			return compressedData.capacity();
+		}
+		if (pixelData != null) {
+			return pixelData.capacity();
+		}
+		return bitmap != null ? bitmap.getRowBytes() * bitmap.getHeight() : 0;
+	}
 }
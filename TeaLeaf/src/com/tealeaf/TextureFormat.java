@@ -0,0 +1,81 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import android.graphics.Bitmap;
+
+// Picks a 16 bit texture format for images that don't need a full 8 bit
+// alpha channel: RGB565 for opaque images and RGBA5551 for images whose
+// alpha is only ever fully transparent or fully opaque.
+public class TextureFormat {
+	public static final int RGBA8888 = 0;
+	public static final int RGB565 = 1;
+	public static final int RGBA5551 = 2;
+
+	// Chooses the smallest format that keeps the image's alpha intact
+	public static int choose(Bitmap bmp) {
+		if (!bmp.hasAlpha()) {
+			return RGB565;
+		}
+
+		int width = bmp.getWidth(), height = bmp.getHeight();
+		int[] row = new int[width];
+		boolean opaque = true;
+		for (int y = 0; y < height; y++) {
+			bmp.getPixels(row, 0, width, 0, y, width, 1);
+			for (int x = 0; x < width; x++) {
+				int alpha = row[x] >>> 24;
+				if (alpha != 0xff) {
+					if (alpha != 0) {
+						return RGBA8888;
+					}
+					opaque = false;
+				}
+			}
+		}
+		return opaque ? RGB565 : RGBA5551;
+	}
+
+	public static int getNumChannels(int format) {
+		return format == RGB565 ? 3 : 4;
+	}
+
+	// Packs the bitmap into GL_UNSIGNED_SHORT_5_5_5_1 pixels
+	public static ByteBuffer toRGBA5551(Bitmap bmp) {
+		int width = bmp.getWidth(), height = bmp.getHeight();
+		ByteBuffer data = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.nativeOrder());
+		ShortBuffer pixels = data.asShortBuffer();
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			bmp.getPixels(row, 0, width, 0, y, width, 1);
+			for (int x = 0; x < width; x++) {
+				int argb = row[x];
+				int r = (argb >> 19) & 0x1f;
+				int g = (argb >> 11) & 0x1f;
+				int b = (argb >> 3) & 0x1f;
+				int a = (argb >>> 31);
+				pixels.put((short)((r << 11) | (g << 6) | (b << 1) | a));
+			}
+		}
+		data.position(0);
+		return data;
+	}
+}
@@ -16,15 +16,23 @@
  */
 package com.tealeaf;
 
+import java.io.BufferedInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import com.tealeaf.event.ImageErrorEvent;
 import com.tealeaf.event.LogEvent;
@@ -45,22 +53,84 @@ import android.util.Pair;
 // gets all the in-flight queue clearing and other tricky aspects right so that
 // it doesn't need to be fixed in each case specially, for example.
 public class TextureLoader implements Runnable {
+	// Load priorities, higher priorities are decoded first
+	public static final int PRIORITY_DEFAULT = 0;
+	public static final int PRIORITY_VISIBLE = 1;
+
+	// Used when pushing images that are not tied to a queued request
+	private static final int ANY_GENERATION = -1;
+
 	private TeaLeaf tealeaf;
 	private boolean running = false;
-	private int failedCount = 0;
 	private boolean isClearing = false; // Indicate if in-flight loads are to be cleared
+	// Incremented on every clear so that in-flight loads queued before it are dropped
+	private int generation = 0;
 	// NOTE: This monitor is used for internal synchronization with the loader thread
 	// And the class object is used for external synchronization with other threads
 	private Object monitor = new Object();
-	private HashSet<String> texturesToLoad = new HashSet<String>();
+	private PriorityQueue<TextureRequest> texturesToLoad = new PriorityQueue<TextureRequest>();
+	private HashMap<String, TextureRequest> queuedTextures = new HashMap<String, TextureRequest>();
+	private long requestCount = 0;
+	// Priorities asked for by prioritizeTexture before the load was requested
+	private static final int MAX_PRIORITY_HINTS = 256;
+	private LinkedHashMap<String, Integer> priorityHints = new LinkedHashMap<String, Integer>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+			return size() > MAX_PRIORITY_HINTS;
+		}
+	};
 	private ResourceManager resourceManager;
 	private TextManager textManager;
 	private ContactList contactList;
-	private ContactPicturesLoader contactPicturesLoader;
+	private volatile ContactPicturesLoader contactPicturesLoader;
+	// Guards starting the picture loader threads below
+	private final Object photoLoaderLock = new Object();
 	private Thread contactPicturesLoaderThread, cameraPictureLoaderThread,
 			galleryPictureLoaderThread;
-	private PhotoLoader cameraPictureLoader, galleryPictureLoader;
+	private volatile PhotoLoader cameraPictureLoader, galleryPictureLoader;
 	private PhotoPicker photoPicker;
+	// Worker threads that decode textures in parallel
+	private ExecutorService decodePool;
+	private Semaphore idleDecoders;
+	private int decodeThreads;
+	private ImageCache imageCache;
+	private BitmapPool stagingPool;
+	private boolean reducedPrecisionTextures;
+	private int atlasPageSize;
+	// Largest texture the GL context supports, larger images are subsampled
+	private volatile int maxTextureSize = 1024;
+	private static final int BOUNDS_MARK_LIMIT = 64 * 1024;
+	// Limits the memory held by decoded images that have not been uploaded yet
+	private DecodeAdmission decodeAdmission;
+	// Times a decode is retried after running out of memory before giving up
+	private static final int MAX_DECODE_ATTEMPTS = 3;
+	// Sample size reported in the image info when decoding ran out of memory
+	private static final int OUT_OF_MEMORY = -1;
+
+	// A queued texture load, ordered by priority and then in request order
+	private static class TextureRequest implements Comparable<TextureRequest> {
+		String url;
+		int priority;
+		long order;
+		int generation;
+		int attempts = 0;
+
+		public TextureRequest(String url, int priority, long order, int generation) {
+			this.url = url;
+			this.priority = priority;
+			this.order = order;
+			this.generation = generation;
+		}
+
+		public int compareTo(TextureRequest other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+	}
 
 	public TextureLoader(TeaLeaf tealeaf, ResourceManager resourceManager, TextManager textManager, ContactList contactList) {
 		this.tealeaf = tealeaf;
@@ -69,55 +139,172 @@ public class TextureLoader implements Runnable {
 		this.contactList = contactList;
 		this.contactPicturesLoaderThread = null;
 		this.photoPicker = new PhotoPicker(tealeaf, tealeaf.getSettings(), resourceManager);
+
+		// Number of decode workers can be overridden in the manifest meta-data
+		int cores = Runtime.getRuntime().availableProcessors();
+		this.decodeThreads = Math.max(1, tealeaf.getOptions().get("textureLoaderThreads", cores));
+
+		// Decoded image cache size in KB, defaults to an eighth of the heap
+		int cacheKB = (int)(Runtime.getRuntime().maxMemory() / 1024 / 8);
+		cacheKB = tealeaf.getOptions().get("imageCacheSizeKB", cacheKB);
+		this.imageCache = new ImageCache(cacheKB * 1024);
+
+		// Power of two staging bitmap pool size in KB, defaults to a sixteenth of the heap
+		int poolKB = (int)(Runtime.getRuntime().maxMemory() / 1024 / 16);
+		poolKB = tealeaf.getOptions().get("bitmapPoolSizeKB", poolKB);
+		this.stagingPool = new BitmapPool(poolKB * 1024);
+
+		// Upload images without partial alpha as 16 bit textures
+		this.reducedPrecisionTextures = tealeaf.getOptions().get("reducedPrecisionTextures", false);
+
+		// Width and maximum height of pages built for @ATLAS requests
+		this.atlasPageSize = getNextHighestPO2(tealeaf.getOptions().get("textureAtlasSize", 1024));
+
+		// Decoded bytes allowed in flight before new decodes wait, defaults to a quarter of the heap
+		int decodeBudgetKB = (int)(Runtime.getRuntime().maxMemory() / 1024 / 4);
+		decodeBudgetKB = tealeaf.getOptions().get("decodeBudgetKB", decodeBudgetKB);
+		this.decodeAdmission = new DecodeAdmission(decodeBudgetKB * 1024L);
+	}
+
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	public TextManager getTextManager() {
+		return textManager;
+	}
+
+	public DecodeAdmission getDecodeAdmission() {
+		return decodeAdmission;
+	}
+
+	// Frees the idle staging bitmaps, they are allocated again as needed
+	public void clearStagingPool() {
+		stagingPool.clear();
+	}
+
+	// Number of textures queued or waiting for memory to decode
+	public int getQueueDepth() {
+		synchronized (monitor) {
+			return texturesToLoad.size() + decodeAdmission.getWaiting();
+		}
 	}
 
 	public void run() {
 		running = true;
 
-		while (running) {
-			Set<String> textures = null;
+		logger.log("{texture} Starting texture loader with", decodeThreads, "decode threads");
+		idleDecoders = new Semaphore(decodeThreads);
+		decodePool = Executors.newFixedThreadPool(decodeThreads, new ThreadFactory() {
+			private int count = 0;
 
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setName("Texture Loader " + (++count));
+				return thread;
+			}
+		});
+
+		while (running) {
 			try {
+				// Only take a request off the queue once a decoder is free, so
+				// that requests queued in the meantime can still jump ahead
+				idleDecoders.acquire();
+
+				final TextureRequest request;
 				synchronized (monitor) {
 					// If there is no more data to process,
-					if (texturesToLoad == null || texturesToLoad.size() <= 0) {
+					while (texturesToLoad.isEmpty()) {
 						monitor.wait();
 					}
 
-					// While locked, steal a set of textures to load
-					textures = new HashSet<String>(texturesToLoad);
-					texturesToLoad.clear();
+					request = texturesToLoad.poll();
+					queuedTextures.remove(request.url);
 
 					// Initialize the "is clearing in-flight" flag to false
 					isClearing = false;
 				}
 
-				// Load the textures from the set
-				if (textures != null && textures.size() > 0) {
-					for (String texture : textures) {
-						load(texture);
+				decodePool.execute(new Runnable() {
+					public void run() {
+						try {
+							if (!isAborted(request)) {
+								load(request);
+							}
+						} catch (Throwable e) {
+							// Includes OutOfMemoryError from text and glyph pages, which
+							// would otherwise leave native waiting on the texture
+							logger.log("{texture} ERROR: Failed to load", request.url, e);
+							loadingError(request.url, request.generation);
+						} finally {
+							idleDecoders.release();
+						}
 					}
-				}
+				});
 			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
+				running = false;
+			}
+		}
+
+		decodePool.shutdownNow();
+	}
+
+	// Returns true if the queue has been cleared since the request was made
+	private boolean isAborted(TextureRequest request) {
+		synchronized (monitor) {
+			return request.generation != generation;
+		}
+	}
+
+	private void pushLoadedImage(TextureData td, int generation) {
+		// If in-flight queue is not being cleared,
+		synchronized (monitor) {
+			if (!isClearing && (generation == ANY_GENERATION || generation == this.generation)) {
+				tealeaf.glView.pushLoadedImage(td);
+			} else {
+				logger.log("{texture} WARNING: Aborting pushing loaded image during clearing");
+				releaseReservation(td);
+			}
+		}
+	}
+
+	// Gives back the memory reserved for decoding the image once it has been
+	// uploaded or dropped, so that decodes waiting for it can go ahead
+	public void releaseReservation(TextureData td) {
+		if (td != null && td.reservedBytes > 0) {
+			decodeAdmission.release(td.reservedBytes);
+			td.reservedBytes = 0;
+		}
+	}
+
+	// Queues a request again after its decode ran out of memory, unless the
+	// queue has been cleared in the meantime
+	private synchronized void retry(TextureRequest request) {
+		if (isAborted(request)) {
+			return;
+		}
+
+		loadTexture(request.url, request.priority);
+		synchronized (monitor) {
+			TextureRequest queued = queuedTextures.get(request.url);
+			if (queued != null) {
+				queued.attempts = request.attempts;
 			}
 		}
 	}
 
 	private void loadingError(String url) {
+		loadingError(url, ANY_GENERATION);
+	}
+
+	private void loadingError(String url, int generation) {
 		logger.log("{texture} WARNING: Unable to load image", url);
 		ImageErrorEvent event = new ImageErrorEvent(url);
 		EventQueue.pushEvent(event);
 		//put the failed texture on the loaded image queue, it will then get cleared
 		//from native
 		TextureData td = new TextureData(url, false);
-		synchronized (monitor) {
-			if (!isClearing) {
-				tealeaf.glView.pushLoadedImage(td);
-			} else {
-				logger.log("{texture} WARNING: Aborting pushing loaded image during clearing");
-			}
-		}
+		pushLoadedImage(td, generation);
 	}
 
 	// Abort loading textures in the queue
@@ -127,33 +314,84 @@ public class TextureLoader implements Runnable {
 	public synchronized void clearTextureLoadQueue() {
 		synchronized(monitor) {
 			isClearing = true;
+			generation++;
 			texturesToLoad.clear();
+			queuedTextures.clear();
+			priorityHints.clear();
 		}
 	}
 
 	// DANGER: This thread is called from threads other than GLThread!
 	// In particular, it is called by the Android Native code from the texture loading thread
-	public synchronized void loadTexture(String url) {
+	public void loadTexture(String url) {
+		loadTexture(url, PRIORITY_DEFAULT);
+	}
+
+	// Queues a texture load, textures with a higher priority are loaded first
+	// and textures with the same priority are loaded in the order requested
+	public synchronized void loadTexture(String url, int priority) {
 		synchronized (monitor) {
-			texturesToLoad.add(url);
+			Integer hint = priorityHints.remove(url);
+			if (hint != null && hint > priority) {
+				priority = hint;
+			}
+			TextureRequest request = queuedTextures.get(url);
+			if (request == null) {
+				request = new TextureRequest(url, priority, requestCount++, generation);
+				queuedTextures.put(url, request);
+				texturesToLoad.add(request);
+			} else {
+				raisePriority(request, priority);
+			}
 			monitor.notify();
 		}
 	}
 
+	// Raises the priority of a queued texture without requesting a load. If it
+	// isn't queued yet, the priority is used when it is.
+	public void prioritizeTexture(String url, int priority) {
+		synchronized (monitor) {
+			TextureRequest request = queuedTextures.get(url);
+			if (request == null) {
+				priorityHints.put(url, priority);
+			} else {
+				raisePriority(request, priority);
+			}
+		}
+	}
+
+	// NOTE: Must be called with the monitor held
+	private void raisePriority(TextureRequest request, int priority) {
+		if (priority > request.priority) {
+			// Already queued, so just move it up
+			texturesToLoad.remove(request);
+			request.priority = priority;
+			texturesToLoad.add(request);
+		}
+	}
+
+	// Runs on the decode workers, so only starting the loader threads is
+	// done under photoLoaderLock, the picture I/O happens outside it
 	private void loadContactPictures(String url) {
-		if (contactPicturesLoaderThread == null) {
-			contactPicturesLoader = new ContactPicturesLoader(url);
-			contactPicturesLoaderThread = new Thread(contactPicturesLoader);
-			contactPicturesLoaderThread.start();
+		synchronized (photoLoaderLock) {
+			if (contactPicturesLoaderThread == null) {
+				contactPicturesLoader = new ContactPicturesLoader(url);
+				contactPicturesLoaderThread = new Thread(contactPicturesLoader);
+				contactPicturesLoaderThread.start();
+			}
 		}
 		contactPicturesLoader.addPicturesToLoad(url);
 	}
 
 	private Bitmap loadGalleryPicture(String id) {
-		if (galleryPictureLoaderThread == null) {
-			galleryPictureLoader = new PhotoLoader("GALLERYPHOTO");
-			galleryPictureLoaderThread = new Thread(galleryPictureLoader);
-			galleryPictureLoaderThread.start();
+		PhotoLoader galleryPictureLoader;
+		synchronized (photoLoaderLock) {
+			if (galleryPictureLoaderThread == null) {
+				this.galleryPictureLoader = new PhotoLoader("GALLERYPHOTO");
+				galleryPictureLoaderThread = new Thread(this.galleryPictureLoader);
+				galleryPictureLoaderThread.start();
+			}
+			galleryPictureLoader = this.galleryPictureLoader;
 		}
 		String[] parts = id.split("-");
 		int intid = Integer.parseInt(parts[0]);
@@ -186,10 +424,14 @@ public class TextureLoader implements Runnable {
 	}
 
 	private Bitmap loadCameraPicture(String id) {
-		if (cameraPictureLoaderThread == null) {
-			cameraPictureLoader = new PhotoLoader("CAMERA");
-			cameraPictureLoaderThread = new Thread(cameraPictureLoader);
-			cameraPictureLoaderThread.start();
+		PhotoLoader cameraPictureLoader;
+		synchronized (photoLoaderLock) {
+			if (cameraPictureLoaderThread == null) {
+				this.cameraPictureLoader = new PhotoLoader("CAMERA");
+				cameraPictureLoaderThread = new Thread(this.cameraPictureLoader);
+				cameraPictureLoaderThread.start();
+			}
+			cameraPictureLoader = this.cameraPictureLoader;
 		}
 		String[] parts = id.split("-");
 		int intid = Integer.parseInt(parts[0]);
@@ -283,13 +525,17 @@ public class TextureLoader implements Runnable {
 		}
 
 		private void addPictureAndSize(int id, int size) {
-			ids.put(id, size);
+			synchronized (monitor) {
+				ids.put(id, size);
+			}
 		}
 
 		private ArrayList<Pair<Integer, Integer>> getLoadedIds() {
-			ArrayList<Pair<Integer, Integer>> ret = new ArrayList<Pair<Integer, Integer>>(finished);
-			ids.clear();
-			return ret;
+			synchronized (monitor) {
+				ArrayList<Pair<Integer, Integer>> ret = new ArrayList<Pair<Integer, Integer>>(finished);
+				ids.clear();
+				return ret;
+			}
 		}
 
 		public void markFinishedPicture(int id) {
@@ -428,14 +674,81 @@ public class TextureLoader implements Runnable {
 		}
 	}
 
+	// Packs the images listed in an "@ATLAS|url|url|..." request onto a single
+	// texture page; where each image went is reported with the loaded event
+	private TextureData loadAtlas(String url) {
+		String[] parts = url.split("\\|");
+		final ArrayList<Pair<String, Bitmap>> images = new ArrayList<Pair<String, Bitmap>>();
+		for (int i = 1; i < parts.length; i++) {
+			Bitmap bmp = getImage(parts[i]);
+			if (bmp != null) {
+				images.add(new Pair<String, Bitmap>(parts[i], bmp));
+			} else {
+				logger.log("{texture} WARNING: Unable to load atlas image", parts[i]);
+			}
+		}
+		if (images.size() == 0) {
+			return null;
+		}
+
+		// Packing the tallest images first keeps the shelves full
+		Collections.sort(images, new Comparator<Pair<String, Bitmap>>() {
+			public int compare(Pair<String, Bitmap> a, Pair<String, Bitmap> b) {
+				return b.second.getHeight() - a.second.getHeight();
+			}
+		});
+
+		int pageSize = atlasPageSize;
+		TextureAtlas atlas = new TextureAtlas(pageSize, pageSize);
+		LinkedHashMap<String, int[]> frames = new LinkedHashMap<String, int[]>();
+		ArrayList<Rect> rects = new ArrayList<Rect>();
+		for (Pair<String, Bitmap> image : images) {
+			Rect rect = atlas.insert(image.second.getWidth(), image.second.getHeight());
+			if (rect == null) {
+				logger.log("{texture} WARNING: Atlas page is full, skipping", image.first);
+			}
+			rects.add(rect);
+		}
+
+		Bitmap page = null;
+		try {
+			page = getBitmap(pageSize, getNextHighestPO2(Math.max(atlas.getUsedHeight(), 1)));
+			page.eraseColor(Color.TRANSPARENT);
+			Canvas c = new Canvas(page);
+			for (int i = 0; i < images.size(); i++) {
+				Rect rect = rects.get(i);
+				if (rect != null) {
+					c.drawBitmap(images.get(i).second, rect.left, rect.top, null);
+					frames.put(images.get(i).first, new int[] {rect.left, rect.top, rect.width(), rect.height()});
+				}
+			}
+		} catch (OutOfMemoryError e) {
+			logger.log(e);
+			return null;
+		} finally {
+			for (Pair<String, Bitmap> image : images) {
+				ImageCache.recycle(image.second);
+			}
+		}
+
+		TextureData td = getTextureData(url, page);
+		if (td != null) {
+			td.atlasFrames = frames;
+		}
+		return td;
+	}
+
 	private Bitmap getBitmap(int width, int height) {
 		return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
 	}
 
-	private void load(String url) {
+	private void load(TextureRequest request) {
+		String url = request.url;
+		int generation = request.generation;
 		logger.log("{texture} Loading", url);
 		long then = System.currentTimeMillis();
 		Bitmap bmp = null;
+		int[] imageInfo = null;
 		if (url.startsWith("@TEXT")) {
 			try {
 				bmp = textManager.getText(url);
@@ -447,7 +760,7 @@ public class TextureLoader implements Runnable {
 		} else if (url.startsWith("@CONTACTPICTURE")) {
 			String[] parts = url.split("\\|");
 			if (parts.length < 2) {
-				loadingError(url);
+				loadingError(url, generation);
 				return;
 			}
 			String[] sizeParts = parts[0].split("-");
@@ -463,9 +776,32 @@ public class TextureLoader implements Runnable {
 			try {
 				bmp = contactList.getPicture(parts[1], size);
 			} catch (Exception e) {
-				loadingError(url);
+				loadingError(url, generation);
 				logger.log(e);
 			}
+		} else if (url.startsWith("@ATLAS")) {
+			TextureData td = loadAtlas(url);
+			if (td == null) {
+				loadingError(url, generation);
+			} else {
+				pushLoadedImage(td, generation);
+			}
+			return;
+		} else if (url.startsWith("@GLYPHS") || url.startsWith("@PARAGRAPH")) {
+			LinkedHashMap<String, int[]> frames = new LinkedHashMap<String, int[]>();
+			if (url.startsWith("@GLYPHS")) {
+				bmp = textManager.getGlyphs(url, atlasPageSize, frames);
+			} else {
+				bmp = textManager.getParagraph(url, frames);
+			}
+			TextureData td = bmp == null ? null : getTextureData(url, bmp);
+			if (td == null) {
+				loadingError(url, generation);
+			} else {
+				td.atlasFrames = frames;
+				pushLoadedImage(td, generation);
+			}
+			return;
 		} else if (url.startsWith("@MULTICONTACTPICTURES")) {
 			loadContactPictures(url);
 			return;
@@ -481,36 +817,56 @@ public class TextureLoader implements Runnable {
 				return;
 			}
 		} else {
-			bmp = getImage(url);
+			// Prefer a pre-compressed version of the image if there is one
+			TextureData td = CompressedTexture.load(url, resourceManager.resolve(url));
+			if (td != null) {
+				pushLoadedImage(td, generation);
+				logger.log("{texture} Loading compressed texture took", System.currentTimeMillis() - then, "ms");
+				return;
+			}
+			imageInfo = new int[4];
+			bmp = getImage(url, imageInfo);
+			if (bmp == null && imageInfo[2] == OUT_OF_MEMORY && ++request.attempts < MAX_DECODE_ATTEMPTS) {
+				logger.log("{texture} Retrying", url, "after running out of memory, queue depth", getQueueDepth());
+				retry(request);
+				return;
+			}
 		}
 		if (bmp == null) {
-			loadingError(url);
+			loadingError(url, generation);
 		} else {
-			loadTexture(url, bmp);
+			loadTexture(url, bmp, imageInfo, generation);
 		}
 		logger.log("{texture} Loading took", System.currentTimeMillis() - then, "ms");
 	}
 
 	public void loadTexture(String url, Bitmap bmp) {
-		TextureData td = getTextureData(url, bmp);
+		loadTexture(url, bmp, null, ANY_GENERATION);
+	}
+
+	private void loadTexture(String url, Bitmap bmp, int[] imageInfo, int generation) {
+		TextureData td = imageInfo != null && imageInfo[2] > 0 ?
+				getTextureData(url, bmp, imageInfo[0], imageInfo[1], imageInfo[2]) : getTextureData(url, bmp);
+		int reserved = imageInfo != null && imageInfo.length > 3 ? imageInfo[3] : 0;
 		if (td == null) {
+			decodeAdmission.release(reserved);
 			return;
 		}
+		td.reservedBytes = reserved;
 
-		// If in-flight queue is not being cleared,
-		synchronized (monitor) {
-			if (!isClearing) {
-				tealeaf.glView.pushLoadedImage(td);
-			} else {
-				logger.log("{texture} WARNING: Aborting pushing loaded image during clearing");
-			}
-		}
+		pushLoadedImage(td, generation);
 	}
 
 	public TextureData getTextureData(String url, Bitmap bmp) {
-		int originalWidth = bmp.getWidth(), originalHeight = bmp.getHeight(), width = getNextHighestPO2(originalWidth), height = getNextHighestPO2(originalHeight);
-		if (width > 1024 || height > 1024) {
-			EventQueue.pushEvent(new LogEvent("The image " + url + " has dimensions larger than 1024x1024, which won't work"));
+		return getTextureData(url, bmp, bmp.getWidth(), bmp.getHeight(), 1);
+	}
+
+	// The bitmap may have been decoded with a sample size, in which case the
+	// original dimensions are those of the full image
+	public TextureData getTextureData(String url, Bitmap bmp, int originalWidth, int originalHeight, int sampleSize) {
+		int width = getNextHighestPO2(originalWidth), height = getNextHighestPO2(originalHeight);
+		if (width / sampleSize > maxTextureSize || height / sampleSize > maxTextureSize) {
+			EventQueue.pushEvent(new LogEvent("The image " + url + " has dimensions larger than " + maxTextureSize + "x" + maxTextureSize + ", which won't work"));
 		}
 
 		boolean halfsizedTextures = width > 64 && height > 64 &&
@@ -521,17 +877,31 @@ public class TextureLoader implements Runnable {
 			ratio = 2.f;
 		}
 
+		// Use a 16 bit format when the image's alpha allows it
+		int format = TextureFormat.RGBA8888;
+		if (reducedPrecisionTextures && !url.startsWith("@TEXT")) {
+			format = TextureFormat.choose(bmp);
+		}
+
 		Bitmap bitmap = null;
-		if (width != originalWidth || height != originalHeight || halfsizedTextures) {
-			int scaledWidth = (int)(width / ratio);
-			int scaledHeight = (int)(height / ratio);
+		boolean staged = false;
+		if (width != originalWidth || height != originalHeight || halfsizedTextures || sampleSize > 1) {
+			int scaledWidth = (int)(width / ratio) / sampleSize;
+			int scaledHeight = (int)(height / ratio) / sampleSize;
 			try {
-				bitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
+				if (format == TextureFormat.RGB565) {
+					bitmap = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.RGB_565);
+				} else {
+					bitmap = stagingPool.get(scaledWidth, scaledHeight);
+				}
 			} catch (OutOfMemoryError e) {
 				logger.log(e);
+				// bmp may be shared with a cache, so give it back rather than leak it
+				ImageCache.recycle(bmp);
 				return null;
 			} catch(Exception e) {
 				logger.log(e);
+				ImageCache.recycle(bmp);
 				return null;
 			}
 			try {
@@ -539,8 +909,9 @@ public class TextureLoader implements Runnable {
 					Canvas c = new Canvas(bitmap);
 					c.scale(1.f / ratio, 1.f / ratio);
 					c.drawBitmap(bmp, 0, 0, null);
-					bmp.recycle();
+					ImageCache.recycle(bmp);
 					bmp = null;
+					staged = true;
 				} else {
 					// put the texture back on the queue--something went wrong
 					loadTexture(url);
@@ -554,11 +925,46 @@ public class TextureLoader implements Runnable {
 		if (bmp != null) {
 			bitmap = bmp;
 		}
-		return new TextureData(url, -1, width, height, originalWidth, originalHeight, bitmap, true);
+
+		TextureData td = new TextureData(url, -1, width, height, originalWidth, originalHeight, bitmap, true);
+		td.pooled = staged && format != TextureFormat.RGB565;
+		td.scale = sampleSize;
+		td.numChannels = TextureFormat.getNumChannels(format);
+		try {
+			if (bitmap == null) {
+				return td;
+			} else if (format == TextureFormat.RGB565 && bitmap.getConfig() != Bitmap.Config.RGB_565) {
+				td.bitmap = bitmap.copy(Bitmap.Config.RGB_565, false);
+				releaseBitmap(bitmap, td.pooled);
+				td.pooled = false;
+			} else if (format == TextureFormat.RGBA5551) {
+				td.pixelData = TextureFormat.toRGBA5551(bitmap);
+				td.pixelType = GLES20.GL_UNSIGNED_SHORT_5_5_5_1;
+				td.pixelWidth = bitmap.getWidth();
+				td.pixelHeight = bitmap.getHeight();
+				td.bitmap = null;
+				releaseBitmap(bitmap, td.pooled);
+				td.pooled = false;
+			}
+		} catch (OutOfMemoryError e) {
+			// Not enough memory to convert, so upload it as it is
+			logger.log(e);
+			td.numChannels = 4;
+		}
+		return td;
+	}
+
+	private void releaseBitmap(Bitmap bitmap, boolean pooled) {
+		if (pooled) {
+			stagingPool.release(bitmap);
+		} else {
+			// May be shared with the image or text cache
+			ImageCache.recycle(bitmap);
+		}
 	}
 
 	public void finishLoadingTexture(TextureData td) {
-		if (td == null || td.url == null || td.bitmap == null) {
+		if (td == null || td.url == null || (td.bitmap == null && td.compressedData == null && td.pixelData == null)) {
 			logger.log("{texture} WARNING: Loading texture failure", td,
 					(td == null ? "" : td.url + " " + td.bitmap));
 			return;
@@ -578,11 +984,32 @@ public class TextureLoader implements Runnable {
 		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
 		GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_REPEAT);
 
+		if (td.compressedData != null) {
+			CompressedTexture.upload(td);
+			logger.log("{texture} Done loading compressed", td.url, "(", td.width, ",", td.height, ")");
+			td.compressedData = null;
+			td.name = textureIds[0];
+			return;
+		}
+
+		if (td.pixelData != null) {
+			// 16 bit pixels, rows are only guaranteed to be 2 byte aligned
+			GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 2);
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, td.pixelWidth, td.pixelHeight, 0,
+					GLES20.GL_RGBA, td.pixelType, td.pixelData);
+			GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+			logger.log("{texture} Done loading", td.url, "(", td.pixelWidth, ",", td.pixelHeight, ")");
+			td.pixelData = null;
+			td.name = textureIds[0];
+			return;
+		}
+
 		// Use the Android GLUtils to specify a two-dimensional texture image
 		// from our bitmap
 		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, td.bitmap, 0);
 		logger.log("{texture} Done loading", td.url, "(", td.bitmap.getWidth(), ",", td.bitmap.getHeight(), ")");
-		td.bitmap.recycle();
+		// Hand staging bitmaps back for the next non power of two image
+		releaseBitmap(td.bitmap, td.pooled);
 		td.bitmap = null;
 		td.name = textureIds[0];
 
@@ -605,14 +1032,41 @@ public class TextureLoader implements Runnable {
 	}
 
 	public Bitmap getImage(String addr) {
+		return getImage(addr, null);
+	}
+
+	// If info is given, it receives the full width and height of the image and
+	// the sample size it was decoded with. Images that would not fit in a
+	// texture are subsampled while decoding. If info has room for a fourth
+	// entry, the decode goes through admission control and the entry receives
+	// the number of bytes reserved, to be released once the texture is uploaded.
+	// A sample size of OUT_OF_MEMORY means the decode ran out of memory.
+	public Bitmap getImage(String addr, int[] info) {
+		boolean admit = info != null && info.length > 3;
 		addr = resourceManager.resolve(addr);
 		if (addr.startsWith("data:image")) {
-			return getImageFromBase64(addr);
+			Bitmap bmp = getImageFromBase64(addr);
+			if (bmp != null && info != null) {
+				info[0] = bmp.getWidth();
+				info[1] = bmp.getHeight();
+				info[2] = 1;
+			}
+			return bmp;
+		}
+
+		Bitmap bmp = imageCache.get(addr, info);
+		if (bmp != null) {
+			if (admit) {
+				// Already decoded, so account for staging and upload without waiting
+				info[3] = decodeAdmission.reserve(getReservationSize(info[0], info[1], info[2]));
+			}
+			return bmp;
 		}
 
+		String cacheKey = addr;
 		URL url = null;
 		InputStream is = null;
-		Bitmap bmp = null;
+		int reserved = 0;
 		try {
 			if (addr.startsWith("//")) {
 				addr = "http:" + addr;
@@ -620,10 +1074,53 @@ public class TextureLoader implements Runnable {
 				addr = "file://" + addr;
 			}
 			url = new URL(addr);
-			is = url.openStream();
-			bmp = BitmapFactory.decodeStream(is);
+			is = new BufferedInputStream(url.openStream(), 16 * 1024);
+
+			// Read the dimensions first so oversize images can be subsampled
+			BitmapFactory.Options opts = new BitmapFactory.Options();
+			opts.inJustDecodeBounds = true;
+			is.mark(BOUNDS_MARK_LIMIT);
+			BitmapFactory.decodeStream(is, null, opts);
+			try {
+				is.reset();
+			} catch (IOException e) {
+				// The header was bigger than the mark limit, so start over
+				is.close();
+				is = new BufferedInputStream(url.openStream(), 16 * 1024);
+			}
+
+			int width = opts.outWidth, height = opts.outHeight;
+			int sampleSize = getSampleSize(width, height);
+			if (sampleSize > 1) {
+				logger.log("{texture} Subsampling", url, "(", width, ",", height, ") by", sampleSize);
+			}
+
+			// Wait for memory held by earlier images before decoding this one
+			if (admit) {
+				int size = getReservationSize(width, height, sampleSize);
+				long waited = decodeAdmission.acquire(size);
+				reserved = size;
+				if (waited > 0) {
+					logger.log("{texture} Decode of", url, "throttled for", waited, "ms, queue depth",
+							getQueueDepth(), decodeAdmission);
+				}
+			}
+
+			opts = new BitmapFactory.Options();
+			opts.inSampleSize = sampleSize;
+			bmp = BitmapFactory.decodeStream(is, null, opts);
 			is.close();
-			return bmp;
+			if (bmp != null) {
+				int[] imageInfo = new int[] {width, height, sampleSize};
+				if (info != null) {
+					System.arraycopy(imageInfo, 0, info, 0, imageInfo.length);
+				}
+				if (admit) {
+					info[3] = reserved;
+				}
+				imageCache.put(cacheKey, bmp, imageInfo);
+				return bmp;
+			}
 		} catch (OutOfMemoryError e) {
 			logger.log("{texture} WARNING: Out of memory loading", addr);
 			if (bmp != null) {
@@ -636,12 +1133,13 @@ public class TextureLoader implements Runnable {
 					logger.log(e2);
 				}
 			}
-			try {
-				Thread.sleep(1000 * (failedCount++));
-			} catch (InterruptedException ex) {
-				logger.log(ex);
-			} finally {
-				loadTexture(addr);
+			// Free what we can and hold new decodes until the images in
+			// flight have been uploaded, the caller decides whether to retry
+			imageCache.clear();
+			stagingPool.clear();
+			decodeAdmission.onOutOfMemory();
+			if (info != null) {
+				info[2] = OUT_OF_MEMORY;
 			}
 		} catch (FileNotFoundException e) {
 
@@ -655,9 +1153,24 @@ public class TextureLoader implements Runnable {
 		} catch (Exception e) {
 			logger.log(e);
 		}
+		decodeAdmission.release(reserved);
 		return null;
 	}
 
+	// Bytes held while an image is decoded and staged into a power of two
+	// texture, which is the most it can take before being uploaded
+	private static int getReservationSize(int width, int height, int sampleSize) {
+		int decodedWidth = (width + sampleSize - 1) / sampleSize;
+		int decodedHeight = (height + sampleSize - 1) / sampleSize;
+		int bytes = decodedWidth * decodedHeight * 4;
+		int paddedWidth = getNextHighestPO2(width) / sampleSize;
+		int paddedHeight = getNextHighestPO2(height) / sampleSize;
+		if (paddedWidth != decodedWidth || paddedHeight != decodedHeight) {
+			bytes += paddedWidth * paddedHeight * 4;
+		}
+		return bytes;
+	}
+
 	private Bitmap getImageFromBase64(String data) {
 		String[] parts = data.split(",");
 		if (parts.length < 2) {
@@ -672,6 +1185,24 @@ public class TextureLoader implements Runnable {
 		return bmp;
 	}
 
+	// Smallest power of two sample size that makes the padded texture fit
+	private int getSampleSize(int width, int height) {
+		int max = maxTextureSize;
+		int paddedWidth = getNextHighestPO2(width), paddedHeight = getNextHighestPO2(height);
+		int sampleSize = 1;
+		while (paddedWidth / sampleSize > max || paddedHeight / sampleSize > max) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	// NOTE: Called from the GLThread once the GL context is available
+	public void setMaxTextureSize(int size) {
+		if (size > 0) {
+			maxTextureSize = size;
+		}
+	}
+
 	public static int getNextHighestPO2(int n) {
 		n -= 1;
 		n = n | (n >> 1);
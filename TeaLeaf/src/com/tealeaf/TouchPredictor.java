@@ -0,0 +1,119 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf;
+
+import java.util.ArrayList;
+
+// Estimates where each pointer that is down will be when the frame being
+// drawn is presented, by extrapolating from its recent velocity. Samples and
+// frame times are on the SystemClock.uptimeMillis() clock.
+// NOTE: Only used from the GLThread
+public class TouchPredictor {
+	// Fields per pointer in getPredictions(): id, x, y, predicted x, predicted y
+	public static final int STRIDE = 5;
+	// Never extrapolate further than this past a pointer's last sample
+	private static final long MAX_PREDICTION_MS = 50;
+	// Weight given to the newest velocity and frame interval measurements
+	private static final float VELOCITY_SMOOTHING = 0.5f;
+	private static final float FRAME_SMOOTHING = 0.1f;
+
+	private static class Pointer {
+		int id;
+		int x, y;
+		float vx, vy;
+		long time;
+	}
+
+	private ArrayList<Pointer> pointers = new ArrayList<Pointer>();
+	private int[] predictions = new int[STRIDE * 4];
+	private float frameInterval = 1000.f / 60;
+	private long lastFrame = 0;
+
+	public void add(int id, int type, int x, int y, long time) {
+		Pointer pointer = null;
+		for (Pointer p : pointers) {
+			if (p.id == id) {
+				pointer = p;
+				break;
+			}
+		}
+
+		if (type == InputRing.UP) {
+			pointers.remove(pointer);
+			return;
+		}
+		if (pointer == null || type == InputRing.DOWN) {
+			if (pointer == null) {
+				pointer = new Pointer();
+				pointer.id = id;
+				pointers.add(pointer);
+			}
+			pointer.vx = pointer.vy = 0;
+		} else if (time > pointer.time) {
+			float dt = time - pointer.time;
+			pointer.vx += ((x - pointer.x) / dt - pointer.vx) * VELOCITY_SMOOTHING;
+			pointer.vy += ((y - pointer.y) / dt - pointer.vy) * VELOCITY_SMOOTHING;
+		}
+		pointer.x = x;
+		pointer.y = y;
+		pointer.time = time;
+	}
+
+	// Called once per frame to keep track of how long frames take
+	public void onFrame(long now) {
+		if (lastFrame > 0) {
+			long delta = now - lastFrame;
+			// Ignore pauses, they aren't what the next frame will take
+			if (delta > 0 && delta < 100) {
+				frameInterval += (delta - frameInterval) * FRAME_SMOOTHING;
+			}
+		}
+		lastFrame = now;
+	}
+
+	// When a frame drawn now is expected to be on screen
+	public long getPresentationTime(long now) {
+		return now + Math.round(frameInterval);
+	}
+
+	public int getActiveCount() {
+		return pointers.size();
+	}
+
+	// Fills getPredictions() for every pointer that is down and returns how
+	// many there are; positions are clamped to the given size
+	public int predict(long when, int width, int height) {
+		int count = pointers.size();
+		if (predictions.length < count * STRIDE) {
+			predictions = new int[count * STRIDE * 2];
+		}
+		for (int i = 0, j = 0; i < count; i++) {
+			Pointer p = pointers.get(i);
+			long ahead = Math.max(0, Math.min(when - p.time, MAX_PREDICTION_MS));
+			predictions[j++] = p.id;
+			predictions[j++] = p.x;
+			predictions[j++] = p.y;
+			predictions[j++] = Math.min(Math.max(0, Math.round(p.x + p.vx * ahead)), width);
+			predictions[j++] = Math.min(Math.max(0, Math.round(p.y + p.vy * ahead)), height);
+		}
+		return count;
+	}
+
+	public int[] getPredictions() {
+		return predictions;
+	}
+}
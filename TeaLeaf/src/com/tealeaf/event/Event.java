@@ -17,6 +17,7 @@
 package com.tealeaf.event;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 
 /**
  * An Event corresponds to a JavaScript action
@@ -26,16 +27,22 @@ public class Event implements Comparable<Event> {
 
 	protected String name;
 	protected int priority = 0;
-	protected static Gson gson = new Gson();
+	protected static Gson gson = EventAdapters.register(new GsonBuilder()).create();
 	public Event(String name) { this.name = name;}
 	
 	public String pack() {
-		String packedValue = gson.toJson(this);
+		String packedValue = EventAdapters.toJson(gson, this);
 		return packedValue;
 	}
 	
 	public int priority() { return priority; }
 
+	/**
+	 * Events with the same key replace each other within a frame when
+	 * EventQueue coalescing is on, null for events that are always delivered
+	 */
+	public String coalesceKey() { return null; }
+
 	@Override
 	public int compareTo(Event event) {
 		return priority() - event.priority();
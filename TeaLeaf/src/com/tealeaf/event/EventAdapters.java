@@ -0,0 +1,263 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf.event;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Hand written serializers for the events sent most often, so packing them
+ * doesn't go through Gson's reflective field discovery. The output is the
+ * same as the reflective serializer's: the event's own fields followed by
+ * name and priority, leaving out null fields.
+ */
+public class EventAdapters {
+	// Adapters by event class, so looking one up doesn't allocate a TypeToken
+	private static ConcurrentHashMap<Class<?>, TypeAdapter<Event>> adapters =
+			new ConcurrentHashMap<Class<?>, TypeAdapter<Event>>();
+
+	// Output reused by toJson() on each thread, dropped if a big event grew it
+	private static final int MAX_BUILDER_CAPACITY = 64 * 1024;
+	private static ThreadLocal<BuilderWriter> writers = new ThreadLocal<BuilderWriter>() {
+		@Override
+		protected BuilderWriter initialValue() {
+			return new BuilderWriter();
+		}
+	};
+
+	private static class BuilderWriter extends Writer {
+		StringBuilder builder = new StringBuilder(256);
+
+		@Override
+		public void write(char[] chars, int offset, int count) {
+			builder.append(chars, offset, count);
+		}
+
+		@Override
+		public void write(String str, int offset, int count) {
+			builder.append(str, offset, offset + count);
+		}
+
+		@Override
+		public void write(int c) {
+			builder.append((char)c);
+		}
+
+		@Override
+		public void flush() { }
+
+		@Override
+		public void close() { }
+	}
+
+	// Same output as gson.toJson(event) without going through Gson's
+	// per-call setup, which costs more than writing a small event
+	public static String toJson(Gson gson, Event event) {
+		BuilderWriter writer = writers.get();
+		writer.builder.setLength(0);
+		try {
+			JsonWriter out = new JsonWriter(writer);
+			// Gson's defaults
+			out.setHtmlSafe(true);
+			out.setSerializeNulls(false);
+			getAdapter(gson, event.getClass()).write(out, event);
+		} catch (IOException e) {
+			// Not thrown when writing to memory
+			throw new RuntimeException(e);
+		}
+
+		String json = writer.builder.toString();
+		if (writer.builder.capacity() > MAX_BUILDER_CAPACITY) {
+			writers.remove();
+		}
+		return json;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static TypeAdapter<Event> getAdapter(Gson gson, Class<?> type) {
+		TypeAdapter<Event> adapter = adapters.get(type);
+		if (adapter == null) {
+			adapter = (TypeAdapter<Event>)gson.getAdapter(type);
+			adapters.put(type, adapter);
+		}
+		return adapter;
+	}
+
+	public static GsonBuilder register(GsonBuilder builder) {
+		builder.registerTypeAdapter(ImageLoadedEvent.class, new EventAdapter<ImageLoadedEvent>() {
+			protected void writeFields(JsonWriter out, ImageLoadedEvent e) throws IOException {
+				out.name("url").value(e.url);
+				out.name("width").value(e.width);
+				out.name("height").value(e.height);
+				out.name("originalWidth").value(e.originalWidth);
+				out.name("originalHeight").value(e.originalHeight);
+				out.name("glName").value(e.glName);
+				if (e.frames != null) {
+					out.name("frames").beginObject();
+					for (Map.Entry<String, int[]> frame : e.frames.entrySet()) {
+						out.name(frame.getKey());
+						writeInts(out, frame.getValue());
+					}
+					out.endObject();
+				}
+			}
+		});
+		builder.registerTypeAdapter(ImageErrorEvent.class, new EventAdapter<ImageErrorEvent>() {
+			protected void writeFields(JsonWriter out, ImageErrorEvent e) throws IOException {
+				out.name("url").value(e.url);
+			}
+		});
+		builder.registerTypeAdapter(SocketReadEvent.class, new EventAdapter<SocketReadEvent>() {
+			protected void writeFields(JsonWriter out, SocketReadEvent e) throws IOException {
+				out.name("id").value(e.id);
+				out.name("data").value(e.data);
+			}
+		});
+		builder.registerTypeAdapter(SocketOpenEvent.class, new EventAdapter<SocketOpenEvent>() {
+			protected void writeFields(JsonWriter out, SocketOpenEvent e) throws IOException {
+				out.name("id").value(e.id);
+			}
+		});
+		builder.registerTypeAdapter(SocketCloseEvent.class, new EventAdapter<SocketCloseEvent>() {
+			protected void writeFields(JsonWriter out, SocketCloseEvent e) throws IOException {
+				out.name("id").value(e.id);
+			}
+		});
+		builder.registerTypeAdapter(SocketErrorEvent.class, new EventAdapter<SocketErrorEvent>() {
+			protected void writeFields(JsonWriter out, SocketErrorEvent e) throws IOException {
+				out.name("id").value(e.id);
+				out.name("message").value(e.message);
+			}
+		});
+		builder.registerTypeAdapter(XHREvent.class, new EventAdapter<XHREvent>() {
+			protected void writeFields(JsonWriter out, XHREvent e) throws IOException {
+				out.name("id").value(e.id);
+				out.name("state").value(e.state);
+				out.name("status").value(e.status);
+				out.name("response").value(e.response);
+				out.name("headerKeys");
+				writeStrings(out, e.headerKeys);
+				out.name("headerValues");
+				writeStrings(out, e.headerValues);
+			}
+		});
+		builder.registerTypeAdapter(InputSamplesEvent.class, new EventAdapter<InputSamplesEvent>() {
+			protected void writeFields(JsonWriter out, InputSamplesEvent e) throws IOException {
+				out.name("samples").beginArray();
+				for (int i = 0; i < e.count * InputSamplesEvent.STRIDE; i++) {
+					out.value(e.samples[i]);
+				}
+				out.endArray();
+				out.name("count").value(e.count);
+				out.name("baseTime").value(e.baseTime);
+			}
+		});
+		builder.registerTypeAdapter(InputPredictionEvent.class, new EventAdapter<InputPredictionEvent>() {
+			protected void writeFields(JsonWriter out, InputPredictionEvent e) throws IOException {
+				out.name("pointers").beginArray();
+				for (int i = 0; i < e.count * InputPredictionEvent.STRIDE; i++) {
+					out.value(e.pointers[i]);
+				}
+				out.endArray();
+				out.name("count").value(e.count);
+				out.name("time").value(e.time);
+			}
+		});
+		builder.registerTypeAdapter(PluginEvent.class, new EventAdapter<PluginEvent>() {
+			protected void writeFields(JsonWriter out, PluginEvent e) throws IOException {
+				out.name("data").value(e.data);
+			}
+		});
+		builder.registerTypeAdapter(LogEvent.class, new EventAdapter<LogEvent>() {
+			protected void writeFields(JsonWriter out, LogEvent e) throws IOException {
+				out.name("message").value(e.message);
+			}
+		});
+		builder.registerTypeAdapter(OnlineEvent.class, new EventAdapter<OnlineEvent>() {
+			protected void writeFields(JsonWriter out, OnlineEvent e) throws IOException {
+				out.name("type").value(e.type);
+			}
+		});
+		builder.registerTypeAdapter(SoundLoadedEvent.class, new EventAdapter<SoundLoadedEvent>() {
+			protected void writeFields(JsonWriter out, SoundLoadedEvent e) throws IOException {
+				out.name("url").value(e.url);
+			}
+		});
+		builder.registerTypeAdapter(SoundErrorEvent.class, new EventAdapter<SoundErrorEvent>() {
+			protected void writeFields(JsonWriter out, SoundErrorEvent e) throws IOException {
+				out.name("url").value(e.url);
+			}
+		});
+		return builder;
+	}
+
+	private static abstract class EventAdapter<T extends Event> extends TypeAdapter<T> {
+		@Override
+		public void write(JsonWriter out, T event) throws IOException {
+			if (event == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			writeFields(out, event);
+			out.name("name").value(event.name);
+			out.name("priority").value(event.priority);
+			out.endObject();
+		}
+
+		// Events are only ever serialized, so there's nothing to read them into
+		@Override
+		public T read(JsonReader in) throws IOException {
+			in.skipValue();
+			return null;
+		}
+
+		protected abstract void writeFields(JsonWriter out, T event) throws IOException;
+	}
+
+	private static void writeInts(JsonWriter out, int[] values) throws IOException {
+		if (values == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginArray();
+		for (int value : values) {
+			out.value(value);
+		}
+		out.endArray();
+	}
+
+	private static void writeStrings(JsonWriter out, String[] values) throws IOException {
+		if (values == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginArray();
+		for (String value : values) {
+			out.value(value);
+		}
+		out.endArray();
+	}
+}
@@ -16,6 +16,8 @@
  */
 package com.tealeaf.event;
 
+import java.util.Map;
+
 public class ImageLoadedEvent extends Event {
 	protected String url;
 	protected int width;
@@ -23,6 +25,7 @@ public class ImageLoadedEvent extends Event {
 	protected int originalWidth;
 	protected int originalHeight;
 	protected int glName;
+	protected Map<String, int[]> frames;
 
 	public ImageLoadedEvent(String url, int width, int height, int originalWidth, int originalHeight, int name) {
 		super("imageLoaded");
@@ -33,4 +36,9 @@ public class ImageLoadedEvent extends Event {
 		this.originalHeight = originalHeight;
 		this.glName = name;
 	}
+
+	public ImageLoadedEvent(String url, int width, int height, int originalWidth, int originalHeight, int name, Map<String, int[]> frames) {
+		this(url, width, height, originalWidth, originalHeight, name);
+		this.frames = frames;
+	}
 }
@@ -0,0 +1,37 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf.event;
+
+/**
+ * Time in ms from touch samples being taken to them being dispatched,
+ * counts[i] samples took up to bounds[i] ms and the last count is for
+ * samples that took longer than the last bound.
+ */
+public class InputLatencyEvent extends Event {
+	protected int[] bounds;
+	protected int[] counts;
+	protected long mean;
+	protected long max;
+
+	public InputLatencyEvent(int[] bounds, int[] counts, long mean, long max) {
+		super("inputLatency");
+		this.bounds = bounds;
+		this.counts = counts;
+		this.mean = mean;
+		this.max = max;
+	}
+}
@@ -0,0 +1,38 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf.event;
+
+/**
+ * Raw and predicted positions of the pointers that are down, packed as id,
+ * x, y, predicted x, predicted y for each pointer. The predicted positions
+ * are estimates for time, when the frame is expected to be presented.
+ */
+public class InputPredictionEvent extends Event {
+	public static final int STRIDE = 5;
+
+	// May be longer than count pointers, only the first count are sent
+	protected int[] pointers;
+	protected int count;
+	protected long time;
+
+	public InputPredictionEvent(int[] pointers, int count, long time) {
+		super("inputPrediction");
+		this.pointers = pointers;
+		this.count = count;
+		this.time = time;
+	}
+}
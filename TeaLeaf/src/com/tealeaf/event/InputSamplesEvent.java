@@ -0,0 +1,39 @@
+/* @license
+ * This file is part of the Game Closure SDK.
+ *
+ * The Game Closure SDK is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+
+ * The Game Closure SDK is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with the Game Closure SDK.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.tealeaf.event;
+
+/**
+ * Every touch sample of a frame, including the historical ones Android
+ * batches into a move, packed as id, type, x, y, time for each sample.
+ * Times are in ms after baseTime, which is on the SystemClock.uptimeMillis()
+ * clock.
+ */
+public class InputSamplesEvent extends Event {
+	public static final int STRIDE = 5;
+
+	// May be longer than count samples, only the first count are sent
+	protected int[] samples;
+	protected int count;
+	protected long baseTime;
+
+	public InputSamplesEvent(int[] samples, int count, long baseTime) {
+		super("inputSamples");
+		this.samples = samples;
+		this.count = count;
+		this.baseTime = baseTime;
+	}
+}
@@ -26,5 +26,7 @@ public class OnlineEvent extends Event {
 			this.type = "offline";
 		}				
 	}
-	
+
+	@Override
+	public String coalesceKey() { return "networkStatus"; }
 }
@@ -18,8 +18,7 @@ package com.tealeaf.event;
 
 public class SoundErrorEvent extends Event {
 	
-	@SuppressWarnings("unused")
-	private String url;
+	protected String url;
 	
 	public SoundErrorEvent(String url) {
 		super("soundError");
@@ -18,8 +18,7 @@ package com.tealeaf.event;
 
 public class SoundLoadedEvent extends Event {
 	
-	@SuppressWarnings("unused")
-	private String url;
+	protected String url;
 	
 	public SoundLoadedEvent(String url) {
 		super("soundLoaded");
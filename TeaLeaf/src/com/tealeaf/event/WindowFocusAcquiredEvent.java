@@ -20,4 +20,7 @@ public class WindowFocusAcquiredEvent extends Event {
 	public WindowFocusAcquiredEvent() {
 		super("windowFocusAcquired");
 	}
+
+	@Override
+	public String coalesceKey() { return "windowFocus"; }
 }
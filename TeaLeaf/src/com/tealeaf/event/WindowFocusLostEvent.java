@@ -20,4 +20,7 @@ public class WindowFocusLostEvent extends Event {
 	public WindowFocusLostEvent() {
 		super("windowFocusLost");
 	}
+
+	@Override
+	public String coalesceKey() { return "windowFocus"; }
 }
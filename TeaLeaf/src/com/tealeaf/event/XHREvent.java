@@ -17,14 +17,10 @@
 package com.tealeaf.event;
 
 public class XHREvent extends Event {
-	@SuppressWarnings("unused")
-	private int id;
-	@SuppressWarnings("unused")
-	private int state;
-	@SuppressWarnings("unused")
-	private int status;
-	@SuppressWarnings("unused")
-	private String response;
+	protected int id;
+	protected int state;
+	protected int status;
+	protected String response;
 	protected String[] headerKeys;
 	protected String[] headerValues;
 